@@ -0,0 +1,634 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates reflection free Gson TypeAdapters for classes annotated with
+ * JsonModel. The adapter of class Model is named Model$$JsonAdapter and placed
+ * in the same package, so it can access fields which are not private. Fields
+ * annotated with JsonRequired are checked for null after reading. Final fields
+ * and fields whose type is not known at compile time are reported as errors.
+ * 
+ * Add the jar of this processor to the annotation processing path of the
+ * application, nemo picks the generated adapters up automatically.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+@SupportedAnnotationTypes(JsonModelProcessor.JSON_MODEL)
+public class JsonModelProcessor extends AbstractProcessor {
+
+	static final String JSON_MODEL = "com.networking.nemo.deserializer.JsonModel";
+
+	private static final String JSON_REQUIRED = "com.networking.nemo.deserializer.JsonRequired";
+	private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+	private static final String ADAPTER_SUFFIX = "$$JsonAdapter";
+	private static final String INDENT = "\t";
+
+	// Types read directly, mapped to the read method of JsonReaderHelper
+	private static final Map<String, String> READ_METHODS = new HashMap<String, String>();
+
+	static {
+		READ_METHODS.put("boolean", "readBoolean");
+		READ_METHODS.put("java.lang.Boolean", "readBoolean");
+		READ_METHODS.put("int", "readInt");
+		READ_METHODS.put("java.lang.Integer", "readInt");
+		READ_METHODS.put("long", "readLong");
+		READ_METHODS.put("java.lang.Long", "readLong");
+		READ_METHODS.put("short", "readShort");
+		READ_METHODS.put("java.lang.Short", "readShort");
+		READ_METHODS.put("byte", "readByte");
+		READ_METHODS.put("java.lang.Byte", "readByte");
+		READ_METHODS.put("double", "readDouble");
+		READ_METHODS.put("java.lang.Double", "readDouble");
+		READ_METHODS.put("float", "readFloat");
+		READ_METHODS.put("java.lang.Float", "readFloat");
+		READ_METHODS.put("char", "readChar");
+		READ_METHODS.put("java.lang.Character", "readChar");
+		READ_METHODS.put("java.lang.String", "readString");
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		TypeElement jsonModel = processingEnv.getElementUtils()
+				.getTypeElement(JSON_MODEL);
+
+		if (jsonModel == null) {
+			return false;
+		}
+
+		for (Element element : roundEnv.getElementsAnnotatedWith(jsonModel)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				error(element, "@JsonModel can only be used on classes.");
+				continue;
+			}
+
+			TypeElement model = (TypeElement) element;
+
+			if (isValidModel(model)) {
+				List<ModelField> fields = getFields(model);
+
+				if (fields != null) {
+					writeAdapter(model, fields);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private boolean isValidModel(final TypeElement model) {
+		if (model.getModifiers().contains(Modifier.ABSTRACT)
+				|| model.getModifiers().contains(Modifier.PRIVATE)
+				|| !model.getTypeParameters().isEmpty()) {
+			error(model,
+					"@JsonModel class must not be abstract, private or generic.");
+			return false;
+		}
+
+		if (model.getNestingKind() != NestingKind.TOP_LEVEL
+				&& (model.getNestingKind() != NestingKind.MEMBER || !model
+						.getModifiers().contains(Modifier.STATIC))) {
+			error(model, "Nested @JsonModel class must be static.");
+			return false;
+		}
+
+		for (ExecutableElement constructor : ElementFilter
+				.constructorsIn(model.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty()
+					&& !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				return true;
+			}
+		}
+
+		error(model,
+				"@JsonModel class must have a no-argument constructor which is not private.");
+		return false;
+	}
+
+	/**
+	 * @return Fields of the model and its superclasses, or <code>null</code>
+	 *         if some field cannot be accessed or assigned.
+	 */
+	private List<ModelField> getFields(final TypeElement model) {
+		List<ModelField> fields = new ArrayList<ModelField>();
+		Set<String> keys = new HashSet<String>();
+		PackageElement modelPackage = getPackage(model);
+		DeclaredType modelType = (DeclaredType) model.asType();
+		boolean valid = true;
+
+		for (TypeElement type = model; type != null; type = getSuperclass(type)) {
+			boolean samePackage = getPackage(type).equals(modelPackage);
+
+			for (VariableElement field : ElementFilter.fieldsIn(type
+					.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+
+				if (modifiers.contains(Modifier.STATIC)
+						|| modifiers.contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+
+				if (modifiers.contains(Modifier.PRIVATE)
+						|| (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+					error(field,
+							"Field of @JsonModel class must be accessible from its package.");
+					valid = false;
+					continue;
+				}
+
+				if (modifiers.contains(Modifier.FINAL)) {
+					error(field, "Field of @JsonModel class must not be final.");
+					valid = false;
+					continue;
+				}
+
+				// Type arguments given to superclasses are filled in
+				TypeMirror fieldType = processingEnv.getTypeUtils()
+						.asMemberOf(modelType, field);
+
+				if (hasTypeVariable(fieldType)) {
+					error(field,
+							"Type of @JsonModel field must not depend on a type variable, extend the superclass with a type argument.");
+					valid = false;
+					continue;
+				}
+
+				String key = getSerializedName(field);
+
+				// Field of subclass hides the one of superclass
+				if (keys.add(key)) {
+					fields.add(new ModelField(field, fieldType, key,
+							hasAnnotation(field, JSON_REQUIRED)));
+				}
+			}
+		}
+
+		return valid ? fields : null;
+	}
+
+	private void writeAdapter(final TypeElement model,
+			final List<ModelField> fields) {
+		String packageName = getPackage(model).getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils()
+				.getBinaryName(model).toString();
+		String adapterName = binaryName.substring(packageName.isEmpty() ? 0
+				: packageName.length() + 1) + ADAPTER_SUFFIX;
+		String modelName = model.getQualifiedName().toString();
+
+		StringBuilder source = new StringBuilder(4096);
+
+		source.append("// Generated by JsonModelProcessor, do not edit.\n");
+
+		if (!packageName.isEmpty()) {
+			source.append("package ").append(packageName).append(";\n");
+		}
+
+		source.append("\npublic final class ").append(adapterName)
+				.append(" extends com.google.gson.TypeAdapter<")
+				.append(modelName).append("> {\n\n");
+		source.append(INDENT)
+				.append("private final com.google.gson.Gson mGson;\n");
+		source.append(INDENT).append("private final boolean mCheckRequired;\n");
+
+		for (int i = 0; i < fields.size(); i++) {
+			ModelField field = fields.get(i);
+
+			if (!field.isDirect()) {
+				source.append(INDENT)
+						.append("private com.google.gson.TypeAdapter<")
+						.append(field.getBoxedTypeName()).append("> mAdapter")
+						.append(i).append(";\n");
+			}
+		}
+
+		// Constructor
+		source.append("\n").append(INDENT).append("public ")
+				.append(adapterName)
+				.append("(com.google.gson.Gson gson, boolean checkRequired) {\n");
+		source.append(INDENT).append(INDENT).append("mGson = gson;\n");
+		source.append(INDENT).append(INDENT)
+				.append("mCheckRequired = checkRequired;\n");
+		source.append(INDENT).append("}\n");
+
+		writeWriteMethod(source, modelName, fields);
+		writeReadMethod(source, modelName, fields);
+
+		// Lazily resolved adapters of other types
+		for (int i = 0; i < fields.size(); i++) {
+			ModelField field = fields.get(i);
+
+			if (!field.isDirect()) {
+				String type = field.getBoxedTypeName();
+
+				source.append("\n").append(INDENT)
+						.append("private com.google.gson.TypeAdapter<")
+						.append(type).append("> getAdapter").append(i)
+						.append("() {\n");
+				source.append(INDENT).append(INDENT).append("if (mAdapter")
+						.append(i).append(" == null) {\n");
+				source.append(INDENT).append(INDENT).append(INDENT)
+						.append("mAdapter").append(i)
+						.append(" = mGson.getAdapter(new com.google.gson.reflect.TypeToken<")
+						.append(type).append(">() {});\n");
+				source.append(INDENT).append(INDENT).append("}\n");
+				source.append(INDENT).append(INDENT).append("return mAdapter")
+						.append(i).append(";\n");
+				source.append(INDENT).append("}\n");
+			}
+		}
+
+		source.append("}\n");
+
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(
+					(packageName.isEmpty() ? "" : packageName + ".")
+							+ adapterName, model);
+			Writer writer = file.openWriter();
+
+			try {
+				writer.append(source);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			error(model, "Cannot write " + adapterName + ": " + e.getMessage());
+		}
+	}
+
+	private void writeWriteMethod(final StringBuilder source,
+			final String modelName, final List<ModelField> fields) {
+		String i2 = INDENT + INDENT;
+		String i3 = i2 + INDENT;
+
+		source.append("\n").append(INDENT).append("@Override\n");
+		source.append(INDENT)
+				.append("public void write(com.google.gson.stream.JsonWriter out, ")
+				.append(modelName)
+				.append(" value) throws java.io.IOException {\n");
+		source.append(i2).append("if (value == null) {\n");
+		source.append(i3).append("out.nullValue();\n");
+		source.append(i3).append("return;\n");
+		source.append(i2).append("}\n\n");
+		source.append(i2).append("out.beginObject();\n");
+
+		for (int i = 0; i < fields.size(); i++) {
+			ModelField field = fields.get(i);
+			String value = "value." + field.getName();
+			String type = field.getTypeName();
+
+			source.append(i2).append("out.name(\"")
+					.append(escape(field.getKey())).append("\");\n");
+
+			if (!field.isDirect()) {
+				source.append(i2).append("getAdapter").append(i)
+						.append("().write(out, ").append(value).append(");\n");
+			} else if (field.isPrimitive()) {
+				if (type.equals("char")) {
+					value = "String.valueOf(" + value + ")";
+				}
+
+				source.append(i2).append("out.value(").append(value)
+						.append(");\n");
+			} else if (type.equals("java.lang.String")) {
+				source.append(i2).append("out.value(").append(value)
+						.append(");\n");
+			} else {
+				// Boxed primitive
+				String unboxed = value;
+
+				if (type.equals("java.lang.Boolean")) {
+					unboxed = value + ".booleanValue()";
+				} else if (type.equals("java.lang.Character")) {
+					unboxed = "String.valueOf(" + value + ".charValue())";
+				}
+
+				source.append(i2).append("if (").append(value)
+						.append(" == null) {\n");
+				source.append(i3).append("out.nullValue();\n");
+				source.append(i2).append("} else {\n");
+				source.append(i3).append("out.value(").append(unboxed)
+						.append(");\n");
+				source.append(i2).append("}\n");
+			}
+		}
+
+		source.append(i2).append("out.endObject();\n");
+		source.append(INDENT).append("}\n");
+	}
+
+	private void writeReadMethod(final StringBuilder source,
+			final String modelName, final List<ModelField> fields) {
+		String i2 = INDENT + INDENT;
+		String i3 = i2 + INDENT;
+		String i4 = i3 + INDENT;
+		String i5 = i4 + INDENT;
+
+		source.append("\n").append(INDENT).append("@Override\n");
+		source.append(INDENT).append("public ").append(modelName)
+				.append(" read(com.google.gson.stream.JsonReader in) throws java.io.IOException {\n");
+		source.append(i2)
+				.append("if (in.peek() == com.google.gson.stream.JsonToken.NULL) {\n");
+		source.append(i3).append("in.nextNull();\n");
+		source.append(i3).append("return null;\n");
+		source.append(i2).append("}\n\n");
+		source.append(i2).append(modelName).append(" object = new ")
+				.append(modelName).append("();\n\n");
+		source.append(i2).append("in.beginObject();\n\n");
+		source.append(i2).append("while (in.hasNext()) {\n");
+		source.append(i3).append("String key = in.nextName();\n\n");
+
+		for (int i = 0; i < fields.size(); i++) {
+			ModelField field = fields.get(i);
+			String target = "object." + field.getName();
+
+			source.append(i3).append(i == 0 ? "if" : "} else if")
+					.append(" (key.equals(\"").append(escape(field.getKey()))
+					.append("\")) {\n");
+
+			if (!field.isDirect()) {
+				source.append(i4).append(target).append(" = getAdapter")
+						.append(i).append("().read(in);\n");
+			} else {
+				String read = "com.networking.nemo.deserializer.JsonReaderHelper."
+						+ READ_METHODS.get(field.getTypeName()) + "(in)";
+
+				source.append(i4)
+						.append("if (in.peek() == com.google.gson.stream.JsonToken.NULL) {\n");
+				source.append(i5).append("in.nextNull();\n");
+
+				// Null leaves primitive to its default value
+				if (!field.isPrimitive()) {
+					source.append(i5).append(target).append(" = null;\n");
+				}
+
+				source.append(i4).append("} else {\n");
+				source.append(i5).append(target).append(" = ").append(read)
+						.append(";\n");
+				source.append(i4).append("}\n");
+			}
+		}
+
+		if (fields.isEmpty()) {
+			source.append(i3).append("in.skipValue();\n");
+		} else {
+			source.append(i3).append("} else {\n");
+			source.append(i4).append("in.skipValue();\n");
+			source.append(i3).append("}\n");
+		}
+
+		source.append(i2).append("}\n\n");
+		source.append(i2).append("in.endObject();\n");
+
+		// Compiled JsonRequired checks
+		boolean hasRequired = false;
+
+		for (ModelField field : fields) {
+			if (field.isRequired() && !field.isPrimitive()) {
+				if (!hasRequired) {
+					source.append("\n").append(i2)
+							.append("if (mCheckRequired) {\n");
+					hasRequired = true;
+				}
+
+				source.append(i3).append("if (object.").append(field.getName())
+						.append(" == null) {\n");
+				source.append(i4)
+						.append("throw new com.networking.nemo.deserializer.JsonKeyNotFoundExpection(\"")
+						.append(escape(field.getKey())).append("\");\n");
+				source.append(i3).append("}\n");
+			}
+		}
+
+		if (hasRequired) {
+			source.append(i2).append("}\n");
+		}
+
+		source.append("\n").append(i2).append("return object;\n");
+		source.append(INDENT).append("}\n");
+	}
+
+	private TypeElement getSuperclass(final TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+
+		if (superclass.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+
+		TypeElement element = (TypeElement) ((DeclaredType) superclass)
+				.asElement();
+
+		if (element.getQualifiedName().contentEquals("java.lang.Object")) {
+			return null;
+		}
+
+		return element;
+	}
+
+	/**
+	 * @return true, if type is or has a type variable, which the generated
+	 *         code cannot name.
+	 */
+	private static boolean hasTypeVariable(final TypeMirror type) {
+		switch (type.getKind()) {
+		case TYPEVAR:
+			return true;
+		case ARRAY:
+			return hasTypeVariable(((ArrayType) type).getComponentType());
+		case WILDCARD:
+			WildcardType wildcard = (WildcardType) type;
+
+			return (wildcard.getExtendsBound() != null && hasTypeVariable(wildcard
+					.getExtendsBound()))
+					|| (wildcard.getSuperBound() != null && hasTypeVariable(wildcard
+							.getSuperBound()));
+		case DECLARED:
+			for (TypeMirror argument : ((DeclaredType) type)
+					.getTypeArguments()) {
+				if (hasTypeVariable(argument)) {
+					return true;
+				}
+			}
+
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	private PackageElement getPackage(final TypeElement type) {
+		return processingEnv.getElementUtils().getPackageOf(type);
+	}
+
+	private String getSerializedName(final VariableElement field) {
+		for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+			if (((TypeElement) annotation.getAnnotationType().asElement())
+					.getQualifiedName().contentEquals(SERIALIZED_NAME)) {
+				for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation
+						.getElementValues().entrySet()) {
+					if (value.getKey().getSimpleName().contentEquals("value")) {
+						return (String) value.getValue().getValue();
+					}
+				}
+			}
+		}
+
+		return field.getSimpleName().toString();
+	}
+
+	private boolean hasAnnotation(final Element element, final String name) {
+		for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+			if (((TypeElement) annotation.getAnnotationType().asElement())
+					.getQualifiedName().contentEquals(name)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static String escape(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private void error(final Element element, final String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+				message, element);
+	}
+
+	/**
+	 * Field of the model with its Json key.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	private class ModelField {
+
+		private final VariableElement mField;
+		private final TypeMirror mType;
+		private final String mKey;
+		private final boolean mRequired;
+
+		/**
+		 * @param field
+		 *            Field of the model or its superclass.
+		 * @param type
+		 *            Type of the field as a member of the model.
+		 * @param key
+		 *            Json key of the field.
+		 * @param required
+		 *            true, if field is annotated with JsonRequired.
+		 */
+		public ModelField(final VariableElement field, final TypeMirror type,
+				final String key, final boolean required) {
+			mField = field;
+			mType = type;
+			mKey = key;
+			mRequired = required;
+		}
+
+		public String getName() {
+			return mField.getSimpleName().toString();
+		}
+
+		public String getKey() {
+			return mKey;
+		}
+
+		public boolean isRequired() {
+			return mRequired;
+		}
+
+		public boolean isPrimitive() {
+			return mType.getKind().isPrimitive();
+		}
+
+		/**
+		 * @return true, if value is read without a TypeAdapter.
+		 */
+		public boolean isDirect() {
+			return READ_METHODS.containsKey(getTypeName());
+		}
+
+		public String getTypeName() {
+			TypeMirror type = mType;
+
+			if (type.getKind() == TypeKind.DECLARED) {
+				TypeElement element = (TypeElement) ((DeclaredType) type)
+						.asElement();
+
+				// Raw name of plain classes, type arguments are kept otherwise
+				if (((DeclaredType) type).getTypeArguments().isEmpty()) {
+					return element.getQualifiedName().toString();
+				}
+			}
+
+			return type.toString();
+		}
+
+		public String getBoxedTypeName() {
+			TypeMirror type = mType;
+
+			if (type.getKind().isPrimitive()) {
+				return processingEnv.getTypeUtils()
+						.boxedClass((PrimitiveType) type)
+						.getQualifiedName().toString();
+			}
+
+			return getTypeName();
+		}
+	}
+}
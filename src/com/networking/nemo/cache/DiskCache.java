@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.networking.nemo.util.NemoLog;
+
+/**
+ * Disk cache of response bodies which survives process death. Entries are
+ * found through an index file mapped to memory, an open addressing hash table
+ * of fixed size slots holding hash, size and last access time of every entry,
+ * so looking up, accounting and evicting entries need no file system calls.
+ * Bodies are kept in one file per entry.
+ * 
+ * Entries are evicted in least recently used order when the total size
+ * exceeds the maximum size or the index is getting full. All disk access runs
+ * on a single background thread.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class DiskCache {
+
+	private static final String THREAD_NAME = "nemo-cache";
+	private static final String INDEX_FILE_NAME = "index";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final int INDEX_MAGIC = 0x4E444331;
+	private static final int ENTRY_MAGIC = 0x4E444531;
+	private static final int HEADER_SIZE = 8;
+	private static final int SLOT_COUNT = 1024;
+	private static final int MAX_ENTRY_COUNT = SLOT_COUNT * 3 / 4;
+
+	// Slot: key hash, content hash, last access time, size
+	private static final int SLOT_SIZE = 32;
+	private static final int SLOT_KEY_HASH = 0;
+	private static final int SLOT_CONTENT_HASH = 8;
+	private static final int SLOT_LAST_ACCESS = 16;
+	private static final int SLOT_ENTRY_SIZE = 24;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Listener receiving a loaded entry.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	public interface OnEntryLoadedListener {
+
+		/**
+		 * Called on the background thread of the cache.
+		 * 
+		 * @param entry
+		 *            Loaded entry or <code>null</code> if not cached.
+		 */
+		void onEntryLoaded(Entry entry);
+	}
+
+	private final File mDirectory;
+	private final int mMaxSize;
+	private final ExecutorService mExecutor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, THREAD_NAME);
+					thread.setDaemon(true);
+
+					return thread;
+				}
+			});
+
+	// Accessed only on the executor thread
+	private MappedByteBuffer mIndex;
+	private long mTotalSize = 0;
+	private int mEntryCount = 0;
+
+	/**
+	 * @param directory
+	 *            Directory of the cache, created on first use.
+	 * @param maxSize
+	 *            Maximum total size of the cached bodies in bytes.
+	 */
+	public DiskCache(final File directory, final int maxSize) {
+		mDirectory = directory;
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * Loads entry in background.
+	 * 
+	 * @param key
+	 *            Key of the request.
+	 * @param listener
+	 *            Listener receiving the entry.
+	 */
+	public void get(final String key, final OnEntryLoadedListener listener) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Entry entry = null;
+
+				if (open()) {
+					entry = read(key);
+				}
+
+				listener.onEntryLoaded(entry);
+			}
+		});
+	}
+
+	/**
+	 * Stores body in background, replacing the entry of the key.
+	 * 
+	 * @param key
+	 *            Key of the request.
+	 * @param body
+	 *            Body of the response, which must not be modified afterwards.
+	 * @param contentHash
+	 *            Hash of the body, see {@link #hash(byte[])}.
+	 */
+	public void put(final String key, final byte[] body, final long contentHash) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (open()) {
+					write(key, body, contentHash);
+				}
+			}
+		});
+	}
+
+	public void remove(final String key) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (open()) {
+					int slot = findSlot(hashKey(key));
+
+					if (slot != -1) {
+						removeSlot(slot);
+					}
+				}
+			}
+		});
+	}
+
+	public void clear() {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (open()) {
+					for (int slot = 0; slot < SLOT_COUNT; slot++) {
+						if (getKeyHash(slot) != 0) {
+							deleteFile(getKeyHash(slot));
+							mIndex.putLong(getOffset(slot) + SLOT_KEY_HASH, 0);
+						}
+					}
+
+					mTotalSize = 0;
+					mEntryCount = 0;
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return 64-bit FNV-1a hash of the bytes, used to tell whether response
+	 *         content has changed.
+	 */
+	public static long hash(final byte[] bytes) {
+		long hash = FNV_OFFSET_BASIS;
+
+		for (byte b : bytes) {
+			hash ^= b & 0xFF;
+			hash *= FNV_PRIME;
+		}
+
+		return hash;
+	}
+
+	private static long hashKey(final String key) {
+		long hash = FNV_OFFSET_BASIS;
+
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= FNV_PRIME;
+		}
+
+		// Zero marks an empty slot
+		return hash != 0 ? hash : 1;
+	}
+
+	/**
+	 * Maps index to memory on first use, creating it if missing or invalid.
+	 * 
+	 * @return true, if the cache can be used.
+	 */
+	private boolean open() {
+		if (mIndex != null) {
+			return true;
+		}
+
+		if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+			NemoLog.error(DiskCache.class, "cannot create " + mDirectory);
+			return false;
+		}
+
+		File indexFile = new File(mDirectory, INDEX_FILE_NAME);
+		long length = HEADER_SIZE + (long) SLOT_COUNT * SLOT_SIZE;
+		RandomAccessFile file = null;
+
+		try {
+			file = new RandomAccessFile(indexFile, "rw");
+			boolean valid = file.length() == length
+					&& file.readInt() == INDEX_MAGIC
+					&& file.readInt() == SLOT_COUNT;
+
+			if (!valid) {
+				// Bodies cannot be found without the index
+				deleteEntryFiles();
+				file.setLength(0);
+				file.setLength(length);
+				file.seek(0);
+				file.writeInt(INDEX_MAGIC);
+				file.writeInt(SLOT_COUNT);
+			}
+
+			mIndex = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					length);
+		} catch (IOException e) {
+			NemoLog.error(DiskCache.class, "cannot open " + indexFile + ": "
+					+ e);
+			return false;
+		} finally {
+			// Mapping stays valid after closing
+			closeQuietly(file);
+		}
+
+		for (int slot = 0; slot < SLOT_COUNT; slot++) {
+			if (getKeyHash(slot) != 0) {
+				mTotalSize += mIndex.getInt(getOffset(slot) + SLOT_ENTRY_SIZE);
+				mEntryCount++;
+			}
+		}
+
+		return true;
+	}
+
+	private Entry read(final String key) {
+		long keyHash = hashKey(key);
+		int slot = findSlot(keyHash);
+
+		if (slot == -1) {
+			return null;
+		}
+
+		DataInputStream in = null;
+
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(getFile(keyHash))));
+
+			if (in.readInt() != ENTRY_MAGIC || !key.equals(in.readUTF())) {
+				// Other key with the same hash
+				return null;
+			}
+
+			long contentHash = in.readLong();
+			byte[] body = new byte[in.readInt()];
+			in.readFully(body);
+
+			mIndex.putLong(getOffset(slot) + SLOT_LAST_ACCESS,
+					System.currentTimeMillis());
+
+			return new Entry(body, contentHash);
+		} catch (IOException e) {
+			NemoLog.warn(DiskCache.class, "cannot read entry: " + e);
+			removeSlot(slot);
+
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private void write(final String key, final byte[] body,
+			final long contentHash) {
+		long keyHash = hashKey(key);
+		int slot = findSlot(keyHash);
+
+		if (slot != -1) {
+			removeSlot(slot);
+		}
+
+		if (body.length > mMaxSize) {
+			return;
+		}
+
+		// Make room before writing
+		while (mEntryCount > 0
+				&& (mEntryCount >= MAX_ENTRY_COUNT || mTotalSize + body.length > mMaxSize)) {
+			removeSlot(findLeastRecentlyUsedSlot());
+		}
+
+		File file = getFile(keyHash);
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		DataOutputStream out = null;
+
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp)));
+			out.writeInt(ENTRY_MAGIC);
+			out.writeUTF(key);
+			out.writeLong(contentHash);
+			out.writeInt(body.length);
+			out.write(body);
+			out.close();
+			out = null;
+
+			if (!temp.renameTo(file)) {
+				throw new IOException("cannot rename " + temp);
+			}
+		} catch (IOException e) {
+			NemoLog.error(DiskCache.class, "cannot write entry: " + e);
+			temp.delete();
+
+			return;
+		} finally {
+			closeQuietly(out);
+		}
+
+		slot = (int) ((keyHash >>> 1) % SLOT_COUNT);
+
+		while (getKeyHash(slot) != 0) {
+			slot = (slot + 1) % SLOT_COUNT;
+		}
+
+		int offset = getOffset(slot);
+		mIndex.putLong(offset + SLOT_CONTENT_HASH, contentHash);
+		mIndex.putLong(offset + SLOT_LAST_ACCESS, System.currentTimeMillis());
+		mIndex.putInt(offset + SLOT_ENTRY_SIZE, body.length);
+		// Key hash last, it makes the slot visible
+		mIndex.putLong(offset + SLOT_KEY_HASH, keyHash);
+
+		mTotalSize += body.length;
+		mEntryCount++;
+	}
+
+	private int findSlot(final long keyHash) {
+		int slot = (int) ((keyHash >>> 1) % SLOT_COUNT);
+
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			long slotHash = getKeyHash(slot);
+
+			if (slotHash == keyHash) {
+				return slot;
+			} else if (slotHash == 0) {
+				return -1;
+			}
+
+			slot = (slot + 1) % SLOT_COUNT;
+		}
+
+		return -1;
+	}
+
+	private int findLeastRecentlyUsedSlot() {
+		int lruSlot = -1;
+		long lruTime = Long.MAX_VALUE;
+
+		for (int slot = 0; slot < SLOT_COUNT; slot++) {
+			if (getKeyHash(slot) != 0) {
+				long lastAccess = mIndex.getLong(getOffset(slot)
+						+ SLOT_LAST_ACCESS);
+
+				if (lastAccess < lruTime) {
+					lruTime = lastAccess;
+					lruSlot = slot;
+				}
+			}
+		}
+
+		return lruSlot;
+	}
+
+	/**
+	 * Removes entry and shifts following slots of the probe sequence back, so
+	 * lookups never stop at a removed slot.
+	 */
+	private void removeSlot(int slot) {
+		long keyHash = getKeyHash(slot);
+
+		deleteFile(keyHash);
+		mTotalSize -= mIndex.getInt(getOffset(slot) + SLOT_ENTRY_SIZE);
+		mEntryCount--;
+
+		int next = slot;
+
+		while (true) {
+			next = (next + 1) % SLOT_COUNT;
+			long nextHash = getKeyHash(next);
+
+			if (nextHash == 0) {
+				break;
+			}
+
+			int home = (int) ((nextHash >>> 1) % SLOT_COUNT);
+
+			// Move if the home of the next slot is not between slot and next
+			boolean between = slot <= next ? slot < home && home <= next
+					: slot < home || home <= next;
+
+			if (!between) {
+				copySlot(next, slot);
+				slot = next;
+			}
+		}
+
+		mIndex.putLong(getOffset(slot) + SLOT_KEY_HASH, 0);
+	}
+
+	private void copySlot(final int from, final int to) {
+		int fromOffset = getOffset(from);
+		int toOffset = getOffset(to);
+
+		for (int i = 0; i < SLOT_SIZE; i += 8) {
+			mIndex.putLong(toOffset + i, mIndex.getLong(fromOffset + i));
+		}
+	}
+
+	private long getKeyHash(final int slot) {
+		return mIndex.getLong(getOffset(slot) + SLOT_KEY_HASH);
+	}
+
+	private static int getOffset(final int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	private File getFile(final long keyHash) {
+		return new File(mDirectory, Long.toHexString(keyHash));
+	}
+
+	private void deleteFile(final long keyHash) {
+		File file = getFile(keyHash);
+
+		if (file.exists() && !file.delete()) {
+			NemoLog.warn(DiskCache.class, "cannot delete " + file);
+		}
+	}
+
+	private void deleteEntryFiles() {
+		File[] files = mDirectory.listFiles();
+
+		if (files != null) {
+			for (File file : files) {
+				if (!file.getName().equals(INDEX_FILE_NAME)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	private static void closeQuietly(final Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// Ignored
+			}
+		}
+	}
+
+	/**
+	 * Cached response body.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	public static final class Entry {
+
+		private final byte[] mBody;
+		private final long mContentHash;
+
+		private Entry(final byte[] body, final long contentHash) {
+			mBody = body;
+			mContentHash = contentHash;
+		}
+
+		public byte[] getBody() {
+			return mBody;
+		}
+
+		public long getContentHash() {
+			return mContentHash;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe in-memory cache of parsed response objects. Entries are evicted
+ * in least recently used order when the total size of the entries exceeds the
+ * maximum size. Size of an entry is the length of the response body it was
+ * parsed from.
+ * 
+ * Entries whose time to live has passed are kept until evicted, so they can
+ * still be used when the server tells the response has not changed. For that
+ * the entries keep the ETag and Last-Modified validators of their response.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class ResponseCache {
+
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	private int mMaxSize;
+	private int mSize = 0;
+
+	// Statistics
+	private long mHitCount = 0;
+	private long mMissCount = 0;
+
+	/**
+	 * @param maxSize
+	 *            Maximum total size of the entries in bytes.
+	 */
+	public ResponseCache(final int maxSize) {
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * @param key
+	 *            Key of the request.
+	 * @param now
+	 *            Current time in milliseconds.
+	 * @return Cached object if its time to live has not passed, otherwise
+	 *         <code>null</code>.
+	 */
+	public synchronized Object getFresh(final String key, final long now) {
+		Entry entry = mEntries.get(key);
+
+		if (entry == null || !entry.isFresh(now)) {
+			mMissCount++;
+			return null;
+		}
+
+		mHitCount++;
+
+		return entry.getValue();
+	}
+
+	/**
+	 * @param key
+	 *            Key of the request.
+	 * @return Cached entry, fresh or not, or <code>null</code> if none.
+	 */
+	public synchronized Entry get(final String key) {
+		return mEntries.get(key);
+	}
+
+	/**
+	 * Adds object to cache, replacing the entry of the key. Object larger than
+	 * the maximum size of the cache is not cached.
+	 * 
+	 * @param key
+	 *            Key of the request.
+	 * @param value
+	 *            Parsed object.
+	 * @param size
+	 *            Size of the object in bytes.
+	 * @param expiresAt
+	 *            Time in milliseconds until which the object is fresh.
+	 */
+	public synchronized void put(final String key, final Object value,
+			final int size, final long expiresAt) {
+		put(key, value, size, expiresAt, null, null);
+	}
+
+	/**
+	 * Adds object to cache with the validators of its response, so it can be
+	 * revalidated with a conditional request when it is no longer fresh.
+	 * 
+	 * @param key
+	 *            Key of the request.
+	 * @param value
+	 *            Parsed object.
+	 * @param size
+	 *            Size of the object in bytes.
+	 * @param expiresAt
+	 *            Time in milliseconds until which the object is fresh.
+	 * @param eTag
+	 *            ETag of the response or <code>null</code>.
+	 * @param lastModified
+	 *            Last-Modified of the response or <code>null</code>.
+	 */
+	public synchronized void put(final String key, final Object value,
+			final int size, final long expiresAt, final String eTag,
+			final String lastModified) {
+		remove(key);
+
+		if (size > mMaxSize) {
+			return;
+		}
+
+		mEntries.put(key, new Entry(value, size, expiresAt, eTag,
+				lastModified));
+		mSize += size;
+
+		trim();
+	}
+
+	public synchronized void remove(final String key) {
+		Entry entry = mEntries.remove(key);
+
+		if (entry != null) {
+			mSize -= entry.getSize();
+		}
+	}
+
+	public synchronized void clear() {
+		mEntries.clear();
+		mSize = 0;
+	}
+
+	public synchronized int getSize() {
+		return mSize;
+	}
+
+	public synchronized int getMaxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * Sets maximum total size of the entries, evicting entries if needed.
+	 * 
+	 * @param maxSize
+	 *            Maximum size in bytes.
+	 */
+	public synchronized void setMaxSize(final int maxSize) {
+		mMaxSize = maxSize;
+		trim();
+	}
+
+	/**
+	 * @return Count of requests served with a fresh cached object.
+	 */
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * @return Count of requests which had no fresh cached object.
+	 */
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+
+		while (mSize > mMaxSize && it.hasNext()) {
+			mSize -= it.next().getValue().getSize();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Cached object and its freshness.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	public static final class Entry {
+
+		private final Object mValue;
+		private final int mSize;
+		private final long mExpiresAt;
+		private final String mETag;
+		private final String mLastModified;
+
+		private Entry(final Object value, final int size,
+				final long expiresAt, final String eTag,
+				final String lastModified) {
+			mValue = value;
+			mSize = size;
+			mExpiresAt = expiresAt;
+			mETag = eTag;
+			mLastModified = lastModified;
+		}
+
+		public Object getValue() {
+			return mValue;
+		}
+
+		public int getSize() {
+			return mSize;
+		}
+
+		public long getExpiresAt() {
+			return mExpiresAt;
+		}
+
+		public boolean isFresh(final long now) {
+			return now < mExpiresAt;
+		}
+
+		public String getETag() {
+			return mETag;
+		}
+
+		public String getLastModified() {
+			return mLastModified;
+		}
+
+		/**
+		 * @return true, if the entry can be revalidated with a conditional
+		 *         request.
+		 */
+		public boolean hasValidators() {
+			return mETag != null || mLastModified != null;
+		}
+	}
+}
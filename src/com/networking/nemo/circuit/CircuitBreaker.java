@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.circuit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.networking.nemo.enums.CircuitState;
+
+/**
+ * Per host circuit breaker. Circuit of a host opens after consecutive
+ * failures, and requests to it fail fast instead of waiting for a timeout.
+ * After the open time a limited count of probe requests is let through, and
+ * the circuit closes when they all succeed or opens again when one fails.
+ * 
+ * Requests allowed by {@link #acquire(String, long)} must report their
+ * outcome with {@link #onSuccess(String, boolean)},
+ * {@link #onFailure(String, boolean, long)} or
+ * {@link #onCanceled(String, boolean)}.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class CircuitBreaker {
+
+	private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	private static final long DEFAULT_OPEN_MILLIS = 30000;
+	private static final int DEFAULT_PROBE_COUNT = 1;
+
+	private final int mFailureThreshold;
+	private final long mOpenMillis;
+	private final int mProbeCount;
+
+	// Hosts which are not closed or have failures, guarded by this
+	private final Map<String, Circuit> mCircuits = new HashMap<String, Circuit>();
+
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS,
+				DEFAULT_PROBE_COUNT);
+	}
+
+	/**
+	 * @param failureThreshold
+	 *            Count of consecutive failures opening the circuit.
+	 * @param openMillis
+	 *            Time the circuit stays open before probing.
+	 * @param probeCount
+	 *            Count of probe requests which must succeed to close the
+	 *            circuit, also the maximum count of probes running at once.
+	 */
+	public CircuitBreaker(final int failureThreshold, final long openMillis,
+			final int probeCount) {
+		if (failureThreshold < 1 || probeCount < 1) {
+			throw new IllegalArgumentException(
+					"Parameters failureThreshold and probeCount must be at least 1.");
+		}
+
+		if (openMillis < 0) {
+			throw new IllegalArgumentException(
+					"Parameter openMillis cannot be negative.");
+		}
+
+		mFailureThreshold = failureThreshold;
+		mOpenMillis = openMillis;
+		mProbeCount = probeCount;
+	}
+
+	/**
+	 * Asks permission to send request to the host.
+	 * 
+	 * @param host
+	 *            Lower case host of the request.
+	 * @param now
+	 *            Current time in milliseconds.
+	 * @return {@link CircuitState#CLOSED} if the request may be sent,
+	 *         {@link CircuitState#HALF_OPEN} if it may be sent as a probe or
+	 *         {@link CircuitState#OPEN} if it must fail.
+	 */
+	public synchronized CircuitState acquire(final String host, final long now) {
+		Circuit circuit = mCircuits.get(host);
+
+		if (circuit == null) {
+			return CircuitState.CLOSED;
+		}
+
+		if (circuit.mState == CircuitState.OPEN
+				&& now - circuit.mOpenedAt >= mOpenMillis) {
+			circuit.mState = CircuitState.HALF_OPEN;
+			circuit.mRunningProbeCount = 0;
+			circuit.mSucceededProbeCount = 0;
+		}
+
+		if (circuit.mState == CircuitState.HALF_OPEN) {
+			if (circuit.mRunningProbeCount + circuit.mSucceededProbeCount >= mProbeCount) {
+				return CircuitState.OPEN;
+			}
+
+			circuit.mRunningProbeCount++;
+		}
+
+		return circuit.mState;
+	}
+
+	/**
+	 * @param host
+	 *            Lower case host of the request.
+	 * @param probe
+	 *            true, if the request was allowed as a probe.
+	 */
+	public synchronized void onSuccess(final String host, final boolean probe) {
+		Circuit circuit = mCircuits.get(host);
+
+		if (circuit == null) {
+			return;
+		}
+
+		if (circuit.mState == CircuitState.CLOSED) {
+			// Closed host without failures needs no circuit
+			mCircuits.remove(host);
+		} else if (probe && circuit.mState == CircuitState.HALF_OPEN) {
+			circuit.mRunningProbeCount--;
+
+			if (++circuit.mSucceededProbeCount >= mProbeCount) {
+				mCircuits.remove(host);
+			}
+		}
+	}
+
+	/**
+	 * @param host
+	 *            Lower case host of the request.
+	 * @param probe
+	 *            true, if the request was allowed as a probe.
+	 * @param now
+	 *            Current time in milliseconds.
+	 */
+	public synchronized void onFailure(final String host, final boolean probe,
+			final long now) {
+		Circuit circuit = mCircuits.get(host);
+
+		if (circuit == null) {
+			circuit = new Circuit();
+			mCircuits.put(host, circuit);
+		}
+
+		if (circuit.mState == CircuitState.CLOSED) {
+			if (++circuit.mFailureCount >= mFailureThreshold) {
+				circuit.open(now);
+			}
+		} else if (probe && circuit.mState == CircuitState.HALF_OPEN) {
+			circuit.open(now);
+		}
+	}
+
+	/**
+	 * Releases permission of a request which was canceled before its outcome
+	 * was known.
+	 * 
+	 * @param host
+	 *            Lower case host of the request.
+	 * @param probe
+	 *            true, if the request was allowed as a probe.
+	 */
+	public synchronized void onCanceled(final String host, final boolean probe) {
+		Circuit circuit = mCircuits.get(host);
+
+		if (probe && circuit != null
+				&& circuit.mState == CircuitState.HALF_OPEN
+				&& circuit.mRunningProbeCount > 0) {
+			circuit.mRunningProbeCount--;
+		}
+	}
+
+	/**
+	 * @param host
+	 *            Lower case host.
+	 * @param now
+	 *            Current time in milliseconds.
+	 * @return Current state of the circuit of the host.
+	 */
+	public synchronized CircuitState getState(final String host,
+			final long now) {
+		Circuit circuit = mCircuits.get(host);
+
+		if (circuit == null) {
+			return CircuitState.CLOSED;
+		}
+
+		if (circuit.mState == CircuitState.OPEN
+				&& now - circuit.mOpenedAt >= mOpenMillis) {
+			return CircuitState.HALF_OPEN;
+		}
+
+		return circuit.mState;
+	}
+
+	/**
+	 * Closes circuits of all hosts.
+	 */
+	public synchronized void reset() {
+		mCircuits.clear();
+	}
+
+	/**
+	 * State of the circuit of one host.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	private static class Circuit {
+
+		private CircuitState mState = CircuitState.CLOSED;
+		private int mFailureCount = 0;
+		private long mOpenedAt;
+		private int mRunningProbeCount;
+		private int mSucceededProbeCount;
+
+		private void open(final long now) {
+			mState = CircuitState.OPEN;
+			mOpenedAt = now;
+			mFailureCount = 0;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.cookie;
+
+/**
+ * Immutable cookie stored by {@link CookieJar}, see RFC 6265.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public final class Cookie {
+
+	private final String mName;
+	private final String mValue;
+	private final String mDomain;
+	private final String mPath;
+	private final long mExpiresAt;
+	private final long mCreationTime;
+	private final boolean mPersistent;
+	private final boolean mHostOnly;
+	private final boolean mSecure;
+	private final boolean mHttpOnly;
+
+	/**
+	 * @param name
+	 *            Name of the cookie.
+	 * @param value
+	 *            Value of the cookie.
+	 * @param domain
+	 *            Lower case domain of the cookie.
+	 * @param path
+	 *            Path of the cookie.
+	 * @param expiresAt
+	 *            Expiry time in milliseconds, {@link Long#MAX_VALUE} for
+	 *            session cookies.
+	 * @param creationTime
+	 *            Creation time in milliseconds.
+	 * @param persistent
+	 *            true, if the cookie has Expires or Max-Age attribute.
+	 * @param hostOnly
+	 *            true, if the cookie is sent only to its exact domain.
+	 * @param secure
+	 *            true, if the cookie is sent only over https.
+	 * @param httpOnly
+	 *            true, if the cookie has HttpOnly attribute.
+	 */
+	public Cookie(final String name, final String value, final String domain,
+			final String path, final long expiresAt, final long creationTime,
+			final boolean persistent, final boolean hostOnly,
+			final boolean secure, final boolean httpOnly) {
+		mName = name;
+		mValue = value;
+		mDomain = domain;
+		mPath = path;
+		mExpiresAt = expiresAt;
+		mCreationTime = creationTime;
+		mPersistent = persistent;
+		mHostOnly = hostOnly;
+		mSecure = secure;
+		mHttpOnly = httpOnly;
+	}
+
+	/**
+	 * Parses Set-Cookie header value.
+	 * 
+	 * @param setCookie
+	 *            Value of Set-Cookie header.
+	 * @param host
+	 *            Lower case host of the request.
+	 * @param requestPath
+	 *            Path of the request.
+	 * @param now
+	 *            Current time in milliseconds.
+	 * @return Parsed cookie or <code>null</code> if the header is invalid or
+	 *         its domain does not match the host.
+	 */
+	public static Cookie parse(final String setCookie, final String host,
+			final String requestPath, final long now) {
+		return CookieParser.parse(setCookie, host, requestPath, now);
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public String getValue() {
+		return mValue;
+	}
+
+	public String getDomain() {
+		return mDomain;
+	}
+
+	public String getPath() {
+		return mPath;
+	}
+
+	public long getExpiresAt() {
+		return mExpiresAt;
+	}
+
+	public long getCreationTime() {
+		return mCreationTime;
+	}
+
+	public boolean isPersistent() {
+		return mPersistent;
+	}
+
+	public boolean isHostOnly() {
+		return mHostOnly;
+	}
+
+	public boolean isSecure() {
+		return mSecure;
+	}
+
+	public boolean isHttpOnly() {
+		return mHttpOnly;
+	}
+
+	public boolean isExpired(final long now) {
+		return mExpiresAt <= now;
+	}
+
+	/**
+	 * @param host
+	 *            Lower case host of the request.
+	 * @param secure
+	 *            true, if the request is sent over https.
+	 * @return true, if the cookie is sent to the host.
+	 */
+	public boolean matches(final String host, final boolean secure) {
+		if (mSecure && !secure) {
+			return false;
+		}
+
+		return mHostOnly ? mDomain.equals(host) : CookieParser.domainMatches(
+				host, mDomain);
+	}
+
+	/**
+	 * @param requestPath
+	 *            Path of the request.
+	 * @return true, if the cookie is sent to the path.
+	 */
+	public boolean matchesPath(final String requestPath) {
+		return CookieParser.pathMatches(requestPath, mPath);
+	}
+
+	/**
+	 * @return true, if the cookie replaces the other one: same name, domain
+	 *         and path.
+	 */
+	public boolean isSameCookie(final Cookie other) {
+		return mName.equals(other.mName) && mDomain.equals(other.mDomain)
+				&& mPath.equals(other.mPath);
+	}
+
+	Cookie withCreationTime(final long creationTime) {
+		return new Cookie(mName, mValue, mDomain, mPath, mExpiresAt,
+				creationTime, mPersistent, mHostOnly, mSecure, mHttpOnly);
+	}
+
+	@Override
+	public String toString() {
+		return mName + "=" + mValue;
+	}
+}
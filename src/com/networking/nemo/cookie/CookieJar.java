@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.cookie;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.networking.nemo.util.NemoLog;
+import com.networking.nemo.util.UrlHelper;
+
+/**
+ * Thread safe cookie store following RFC 6265. Cookies are indexed by their
+ * domain, so finding the cookies of a request only looks at the domains the
+ * request host belongs to.
+ * 
+ * The Cookie header is cached per host and rebuilt only when a cookie of one
+ * of those domains changes or expires. Cookies with other paths than "/" are
+ * filtered by the request path when the header is requested.
+ * 
+ * Persistent cookies can be kept over restarts with a {@link CookieLog}.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class CookieJar {
+
+	private static final String SECURE_SCHEME = "https:";
+
+	// Longer paths first, then earlier creation time, RFC 6265 section 5.4
+	private static final Comparator<Cookie> HEADER_ORDER = new Comparator<Cookie>() {
+		@Override
+		public int compare(Cookie lhs, Cookie rhs) {
+			int byPath = rhs.getPath().length() - lhs.getPath().length();
+
+			if (byPath != 0) {
+				return byPath;
+			}
+
+			return lhs.getCreationTime() < rhs.getCreationTime() ? -1 : lhs
+					.getCreationTime() == rhs.getCreationTime() ? 0 : 1;
+		}
+	};
+
+	private final ConcurrentHashMap<String, DomainCookies> mDomains = new ConcurrentHashMap<String, DomainCookies>();
+	private final ConcurrentHashMap<String, CachedHeader> mHeaders = new ConcurrentHashMap<String, CachedHeader>();
+
+	// Log writes are guarded by the jar
+	private volatile CookieLog mCookieLog;
+	private volatile CookieLog mLoadingLog;
+	// Keys of cookies stored while the log was loading, newer than the log
+	private final Set<String> mStoredWhileLoading = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private boolean mClearedWhileLoading = false;
+
+	/**
+	 * Sets log persistent cookies are written to. Cookies of the log are
+	 * loaded in background and merged with the cookies stored meanwhile, so
+	 * setting the log does not slow down startup or requests. Cookies stored
+	 * before the loading has finished are newer than the ones of the log and
+	 * replace them. Replaced log is deleted.
+	 * 
+	 * @param cookieLog
+	 *            {@link CookieLog} to be used, or <code>null</code> to keep
+	 *            cookies only in memory.
+	 */
+	public synchronized void setCookieLog(final CookieLog cookieLog) {
+		CookieLog previous = mCookieLog != null ? mCookieLog : mLoadingLog;
+		mCookieLog = null;
+		mLoadingLog = null;
+		mStoredWhileLoading.clear();
+		mClearedWhileLoading = false;
+
+		if (previous != null) {
+			previous.delete();
+		}
+
+		if (cookieLog == null) {
+			return;
+		}
+
+		mLoadingLog = cookieLog;
+
+		// Cookies stored before loading was started are written to the log
+		for (Cookie cookie : collectCookies()) {
+			mStoredWhileLoading.add(getKey(cookie));
+		}
+
+		cookieLog.load(new CookieLog.OnLoadedListener() {
+			@Override
+			public void onLoaded(List<Cookie> cookies) {
+				onCookiesLoaded(cookieLog, cookies);
+			}
+		});
+	}
+
+	private synchronized void onCookiesLoaded(final CookieLog cookieLog,
+			final List<Cookie> loaded) {
+		// Log was replaced while loading
+		if (mLoadingLog != cookieLog) {
+			return;
+		}
+
+		if (mClearedWhileLoading) {
+			cookieLog.clear();
+		} else {
+			for (Cookie cookie : loaded) {
+				if (!mStoredWhileLoading.contains(getKey(cookie))) {
+					putCookie(cookie);
+				}
+			}
+		}
+
+		Map<String, Cookie> current = new HashMap<String, Cookie>();
+
+		for (Cookie cookie : collectCookies()) {
+			current.put(getKey(cookie), cookie);
+		}
+
+		// Cookies removed while loading are removed from the log
+		if (!mClearedWhileLoading) {
+			for (Cookie cookie : loaded) {
+				String key = getKey(cookie);
+				Cookie stored = current.get(key);
+
+				if (mStoredWhileLoading.contains(key)
+						&& (stored == null || !stored.isPersistent())) {
+					cookieLog.appendRemoval(cookie);
+				}
+			}
+		}
+
+		for (String key : mStoredWhileLoading) {
+			Cookie stored = current.get(key);
+
+			if (stored != null && stored.isPersistent()) {
+				cookieLog.append(stored);
+			}
+		}
+
+		mCookieLog = cookieLog;
+		mLoadingLog = null;
+		mStoredWhileLoading.clear();
+		mClearedWhileLoading = false;
+	}
+
+	/**
+	 * Stores cookies of response. Cookies which have expired remove the stored
+	 * cookies they replace.
+	 * 
+	 * @param url
+	 *            Url of the request.
+	 * @param setCookies
+	 *            Values of Set-Cookie headers of the response.
+	 */
+	public void storeCookies(final String url, final List<String> setCookies) {
+		if (setCookies.isEmpty()) {
+			return;
+		}
+
+		String host = UrlHelper.getHost(url);
+
+		if (host.length() == 0) {
+			return;
+		}
+
+		String path = UrlHelper.getPath(url);
+		long now = System.currentTimeMillis();
+
+		for (String setCookie : setCookies) {
+			if (setCookie == null || setCookie.length() == 0) {
+				continue;
+			}
+
+			Cookie cookie = Cookie.parse(setCookie, host, path, now);
+
+			if (cookie == null) {
+				NemoLog.warn(CookieJar.class, "invalid cookie, host: " + host);
+				continue;
+			}
+
+			addCookie(cookie);
+
+			// Log
+			NemoLog.debug(CookieJar.class,
+					"store cookie, domain: " + cookie.getDomain());
+			NemoLog.debug(CookieJar.class, cookie);
+		}
+	}
+
+	/**
+	 * Adds cookie, replacing the cookie with the same name, domain and path.
+	 * Expired cookie only removes the cookie it replaces.
+	 * 
+	 * @param cookie
+	 *            Cookie to be added.
+	 */
+	public void addCookie(final Cookie cookie) {
+		if (mLoadingLog != null) {
+			mStoredWhileLoading.add(getKey(cookie));
+		}
+
+		Cookie replaced = putCookie(cookie);
+
+		// Cookies stored before the log is ready are written when it is
+		synchronized (this) {
+			CookieLog cookieLog = mCookieLog;
+
+			if (cookieLog == null) {
+				return;
+			}
+
+			if (cookie.isPersistent()
+					&& !cookie.isExpired(System.currentTimeMillis())) {
+				cookieLog.append(cookie);
+			} else if (replaced != null && replaced.isPersistent()) {
+				cookieLog.appendRemoval(replaced);
+			}
+		}
+	}
+
+	/**
+	 * @return Cookie which was replaced or removed, or <code>null</code> if
+	 *         none.
+	 */
+	private Cookie putCookie(final Cookie cookie) {
+		DomainCookies domainCookies = mDomains.get(cookie.getDomain());
+
+		if (domainCookies == null) {
+			if (cookie.isExpired(System.currentTimeMillis())) {
+				return null;
+			}
+
+			DomainCookies newDomainCookies = new DomainCookies();
+			domainCookies = mDomains.putIfAbsent(cookie.getDomain(),
+					newDomainCookies);
+
+			if (domainCookies == null) {
+				domainCookies = newDomainCookies;
+			}
+		}
+
+		return domainCookies.put(cookie);
+	}
+
+	/**
+	 * @param url
+	 *            Url of the request.
+	 * @return Value of Cookie header for the request or <code>null</code> if
+	 *         there are no cookies to send. Does not wait for the cookies of
+	 *         the log to be loaded.
+	 */
+	public String getCookieHeader(final String url) {
+		String host = UrlHelper.getHost(url);
+
+		if (host.length() == 0) {
+			return null;
+		}
+
+		boolean secure = url.regionMatches(true, 0, SECURE_SCHEME, 0,
+				SECURE_SCHEME.length());
+		String key = secure ? SECURE_SCHEME + host : host;
+		long now = System.currentTimeMillis();
+
+		CachedHeader header = mHeaders.get(key);
+
+		if (header == null || !header.isValid(mDomains, now)) {
+			header = buildHeader(host, secure, now);
+			mHeaders.put(key, header);
+		}
+
+		return header.getValue(url);
+	}
+
+	/**
+	 * @return Cookies which have not expired, without the ones of a log still
+	 *         being loaded.
+	 */
+	public List<Cookie> getCookies() {
+		return collectCookies();
+	}
+
+	private List<Cookie> collectCookies() {
+		long now = System.currentTimeMillis();
+		List<Cookie> cookies = new ArrayList<Cookie>();
+
+		for (DomainCookies domainCookies : mDomains.values()) {
+			domainCookies.collect(cookies, null, false, now);
+		}
+
+		return cookies;
+	}
+
+	public synchronized void clear() {
+		mDomains.clear();
+		mHeaders.clear();
+
+		CookieLog cookieLog = mCookieLog;
+
+		if (cookieLog != null) {
+			cookieLog.clear();
+		} else if (mLoadingLog != null) {
+			// Cookies of the log are dropped when loaded
+			mClearedWhileLoading = true;
+			mStoredWhileLoading.clear();
+		}
+	}
+
+	private static String getKey(final Cookie cookie) {
+		return cookie.getName() + ';' + cookie.getDomain() + ';'
+				+ cookie.getPath();
+	}
+
+	private CachedHeader buildHeader(final String host, final boolean secure,
+			final long now) {
+		String[] domainNames = getDomainNames(host);
+		DomainCookies[] domains = new DomainCookies[domainNames.length];
+		int[] versions = new int[domainNames.length];
+		List<Cookie> cookies = new ArrayList<Cookie>();
+
+		for (int i = 0; i < domainNames.length; i++) {
+			domains[i] = mDomains.get(domainNames[i]);
+
+			if (domains[i] != null) {
+				versions[i] = domains[i].collect(cookies, host, secure, now);
+			}
+		}
+
+		Collections.sort(cookies, HEADER_ORDER);
+
+		return new CachedHeader(domainNames, domains, versions,
+				cookies.toArray(new Cookie[cookies.size()]));
+	}
+
+	/**
+	 * @return Host and its parent domains, which are the only domains whose
+	 *         cookies can match the host.
+	 */
+	private static String[] getDomainNames(final String host) {
+		List<String> names = new ArrayList<String>(4);
+		names.add(host);
+
+		// Ip addresses only match themselves
+		if (host.indexOf(':') == -1
+				&& !Character.isDigit(host.charAt(host.length() - 1))) {
+			int dot = host.indexOf('.');
+
+			while (dot != -1 && dot < host.length() - 1) {
+				names.add(host.substring(dot + 1));
+				dot = host.indexOf('.', dot + 1);
+			}
+		}
+
+		return names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 * Cookies of one domain. Version changes whenever the cookies sent to
+	 * requests change.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	private static class DomainCookies {
+
+		private final List<Cookie> mCookies = new ArrayList<Cookie>(4);
+		private volatile int mVersion = 0;
+
+		/**
+		 * @return Cookie which was replaced or removed, or <code>null</code>
+		 *         if none.
+		 */
+		public synchronized Cookie put(final Cookie cookie) {
+			Cookie replaced = null;
+			Iterator<Cookie> it = mCookies.iterator();
+
+			while (it.hasNext()) {
+				Cookie old = it.next();
+
+				if (old.isSameCookie(cookie)) {
+					replaced = old;
+					it.remove();
+					break;
+				}
+			}
+
+			if (!cookie.isExpired(System.currentTimeMillis())) {
+				// Replacing cookie keeps the creation time
+				mCookies.add(replaced != null ? cookie
+						.withCreationTime(replaced.getCreationTime()) : cookie);
+			} else if (replaced == null) {
+				return null;
+			}
+
+			mVersion++;
+
+			return replaced;
+		}
+
+		/**
+		 * Adds cookies matching the host to the list and removes expired
+		 * cookies. Expired cookies are never in a valid cached header, so the
+		 * version does not change.
+		 * 
+		 * @param host
+		 *            Host of the request, or <code>null</code> for all cookies.
+		 * @return Version of the collected cookies.
+		 */
+		public synchronized int collect(final List<Cookie> cookies,
+				final String host, final boolean secure, final long now) {
+			Iterator<Cookie> it = mCookies.iterator();
+
+			while (it.hasNext()) {
+				Cookie cookie = it.next();
+
+				if (cookie.isExpired(now)) {
+					it.remove();
+				} else if (host == null || cookie.matches(host, secure)) {
+					cookies.add(cookie);
+				}
+			}
+
+			return mVersion;
+		}
+
+		public int getVersion() {
+			return mVersion;
+		}
+	}
+
+	/**
+	 * Cookie header of a host, valid until a cookie of one of its domains
+	 * changes or expires.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	private static class CachedHeader {
+
+		private final String[] mDomainNames;
+		private final DomainCookies[] mDomains;
+		private final int[] mVersions;
+		private final Cookie[] mCookies;
+		private final long mExpiresAt;
+
+		// Whole header when no cookie depends on the request path
+		private final String mValue;
+
+		public CachedHeader(final String[] domainNames,
+				final DomainCookies[] domains, final int[] versions,
+				final Cookie[] cookies) {
+			mDomainNames = domainNames;
+			mDomains = domains;
+			mVersions = versions;
+			mCookies = cookies;
+
+			long expiresAt = Long.MAX_VALUE;
+			boolean rootPaths = true;
+
+			for (Cookie cookie : cookies) {
+				expiresAt = Math.min(expiresAt, cookie.getExpiresAt());
+				rootPaths &= "/".equals(cookie.getPath());
+			}
+
+			mExpiresAt = expiresAt;
+			mValue = rootPaths ? join(null) : null;
+		}
+
+		public boolean isValid(
+				final ConcurrentHashMap<String, DomainCookies> domains,
+				final long now) {
+			if (mExpiresAt <= now) {
+				return false;
+			}
+
+			for (int i = 0; i < mDomainNames.length; i++) {
+				DomainCookies current = domains.get(mDomainNames[i]);
+
+				if (current != mDomains[i]
+						|| (current != null && current.getVersion() != mVersions[i])) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		public String getValue(final String url) {
+			if (mCookies.length == 0 || mValue != null) {
+				return mValue;
+			}
+
+			return join(UrlHelper.getPath(url));
+		}
+
+		private String join(final String path) {
+			StringBuilder header = new StringBuilder();
+
+			for (Cookie cookie : mCookies) {
+				if (path != null && !cookie.matchesPath(path)) {
+					continue;
+				}
+
+				if (header.length() > 0) {
+					header.append("; ");
+				}
+
+				header.append(cookie.getName()).append('=')
+						.append(cookie.getValue());
+			}
+
+			return header.length() > 0 ? header.toString() : null;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.cookie;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.networking.nemo.util.RecordLog;
+
+/**
+ * Append-only log file of persistent cookies, see {@link RecordLog}. Every
+ * change is appended as a record and session cookies are never written.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class CookieLog extends RecordLog<Cookie> {
+
+	private static final String THREAD_NAME = "nemo-cookies";
+	private static final int MAGIC = 0x4E434C31;
+
+	private static final byte FLAG_HOST_ONLY = 1;
+	private static final byte FLAG_SECURE = 2;
+	private static final byte FLAG_HTTP_ONLY = 4;
+
+	/**
+	 * Listener receiving the cookies read from the log.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	public interface OnLoadedListener {
+
+		/**
+		 * Called on the background thread of the log.
+		 * 
+		 * @param cookies
+		 *            Cookies which have not expired.
+		 */
+		void onLoaded(List<Cookie> cookies);
+	}
+
+	// Accessed only on the executor thread
+	private final Map<String, Cookie> mLiveCookies = new LinkedHashMap<String, Cookie>();
+
+	/**
+	 * @param file
+	 *            Log file, created if it does not exist.
+	 */
+	public CookieLog(final File file) {
+		super(file, MAGIC, THREAD_NAME);
+	}
+
+	/**
+	 * Reads the log in background. Changes made after this call are appended
+	 * after the log has been read.
+	 * 
+	 * @param listener
+	 *            Listener receiving the cookies.
+	 */
+	public void load(final OnLoadedListener listener) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean intact = read();
+				removeExpired(System.currentTimeMillis());
+
+				// Rewrite torn or mostly replaced log before appending to it
+				if (!intact || shouldCompact(mLiveCookies.size())) {
+					compact();
+				}
+
+				listener.onLoaded(new ArrayList<Cookie>(mLiveCookies.values()));
+			}
+		});
+	}
+
+	/**
+	 * Appends persistent cookie to the log.
+	 * 
+	 * @param cookie
+	 *            Cookie which has been added or replaced.
+	 */
+	public void append(final Cookie cookie) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				mLiveCookies.put(getKey(cookie), cookie);
+				writeAndCompact(cookie, RECORD_ADD);
+			}
+		});
+	}
+
+	/**
+	 * Appends removal of persistent cookie to the log.
+	 * 
+	 * @param cookie
+	 *            Cookie which has been removed.
+	 */
+	public void appendRemoval(final Cookie cookie) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				mLiveCookies.remove(getKey(cookie));
+				writeAndCompact(cookie, RECORD_REMOVE);
+			}
+		});
+	}
+
+	/**
+	 * Removes all cookies from the log.
+	 */
+	public void clear() {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				mLiveCookies.clear();
+				compact();
+			}
+		});
+	}
+
+	private void writeAndCompact(final Cookie cookie, final byte type) {
+		if (write(cookie, type) && shouldCompact(mLiveCookies.size())) {
+			compact();
+		}
+	}
+
+	@Override
+	protected boolean readRecord(final ByteBuffer buffer, final byte type)
+			throws IOException {
+		if (type == RECORD_ADD) {
+			Cookie cookie = readCookie(buffer);
+			mLiveCookies.put(getKey(cookie), cookie);
+		} else if (type == RECORD_REMOVE) {
+			mLiveCookies.remove(readString(buffer) + ';' + readString(buffer)
+					+ ';' + readString(buffer));
+		} else {
+			return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	protected void writeRecord(final DataOutputStream out,
+			final Cookie cookie, final byte type) throws IOException {
+		out.writeByte(type);
+		writeString(out, cookie.getName());
+
+		if (type == RECORD_ADD) {
+			writeString(out, cookie.getValue());
+		}
+
+		writeString(out, cookie.getDomain());
+		writeString(out, cookie.getPath());
+
+		if (type == RECORD_ADD) {
+			out.writeLong(cookie.getExpiresAt());
+			out.writeLong(cookie.getCreationTime());
+			out.writeByte((cookie.isHostOnly() ? FLAG_HOST_ONLY : 0)
+					| (cookie.isSecure() ? FLAG_SECURE : 0)
+					| (cookie.isHttpOnly() ? FLAG_HTTP_ONLY : 0));
+		}
+	}
+
+	@Override
+	protected Collection<Cookie> getLiveRecords() {
+		removeExpired(System.currentTimeMillis());
+
+		return mLiveCookies.values();
+	}
+
+	private void removeExpired(final long now) {
+		Iterator<Cookie> it = mLiveCookies.values().iterator();
+
+		while (it.hasNext()) {
+			if (it.next().isExpired(now)) {
+				it.remove();
+			}
+		}
+	}
+
+	private static Cookie readCookie(final ByteBuffer buffer)
+			throws UnsupportedEncodingException {
+		String name = readString(buffer);
+		String value = readString(buffer);
+		String domain = readString(buffer);
+		String path = readString(buffer);
+		long expiresAt = buffer.getLong();
+		long creationTime = buffer.getLong();
+		byte flags = buffer.get();
+
+		return new Cookie(name, value, domain, path, expiresAt, creationTime,
+				true, (flags & FLAG_HOST_ONLY) != 0,
+				(flags & FLAG_SECURE) != 0, (flags & FLAG_HTTP_ONLY) != 0);
+	}
+
+	private static String getKey(final Cookie cookie) {
+		return cookie.getName() + ';' + cookie.getDomain() + ';'
+				+ cookie.getPath();
+	}
+}
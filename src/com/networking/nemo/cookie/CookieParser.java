@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.cookie;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parses Set-Cookie headers and matches domains and paths following RFC 6265
+ * section 5. Public suffixes are not checked.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+final class CookieParser {
+
+	private static final String EXPIRES = "Expires";
+	private static final String MAX_AGE = "Max-Age";
+	private static final String DOMAIN = "Domain";
+	private static final String PATH = "Path";
+	private static final String SECURE = "Secure";
+	private static final String HTTP_ONLY = "HttpOnly";
+
+	private static final String[] MONTHS = { "jan", "feb", "mar", "apr",
+			"may", "jun", "jul", "aug", "sep", "oct", "nov", "dec" };
+	private static final TimeZone UTC = TimeZone.getTimeZone("GMT");
+
+	/**
+	 * See {@link Cookie#parse(String, String, String, long)}.
+	 */
+	static Cookie parse(final String setCookie, final String host,
+			final String requestPath, final long now) {
+		int semicolon = setCookie.indexOf(';');
+		String pair = semicolon != -1 ? setCookie.substring(0, semicolon)
+				: setCookie;
+		int equals = pair.indexOf('=');
+
+		if (equals == -1) {
+			return null;
+		}
+
+		String name = pair.substring(0, equals).trim();
+		String value = pair.substring(equals + 1).trim();
+
+		if (name.length() == 0) {
+			return null;
+		}
+
+		long expires = -1;
+		long maxAgeExpiresAt = -1;
+		boolean hasMaxAge = false;
+		String domain = null;
+		String path = null;
+		boolean secure = false;
+		boolean httpOnly = false;
+
+		int start = semicolon + 1;
+
+		while (semicolon != -1 && start < setCookie.length()) {
+			int end = setCookie.indexOf(';', start);
+
+			if (end == -1) {
+				end = setCookie.length();
+			}
+
+			String attribute = setCookie.substring(start, end);
+			int eq = attribute.indexOf('=');
+			String attributeName = (eq != -1 ? attribute.substring(0, eq)
+					: attribute).trim();
+			String attributeValue = eq != -1 ? attribute.substring(eq + 1)
+					.trim() : "";
+
+			if (attributeName.equalsIgnoreCase(EXPIRES)) {
+				long date = parseDate(attributeValue);
+
+				if (date != -1) {
+					expires = date;
+				}
+			} else if (attributeName.equalsIgnoreCase(MAX_AGE)) {
+				if (isMaxAge(attributeValue)) {
+					maxAgeExpiresAt = parseMaxAge(attributeValue, now);
+					hasMaxAge = true;
+				}
+			} else if (attributeName.equalsIgnoreCase(DOMAIN)) {
+				if (attributeValue.startsWith(".")) {
+					attributeValue = attributeValue.substring(1);
+				}
+
+				if (attributeValue.length() > 0) {
+					domain = attributeValue.toLowerCase(Locale.US);
+				}
+			} else if (attributeName.equalsIgnoreCase(PATH)) {
+				// Invalid path falls back to the default path
+				path = attributeValue.startsWith("/") ? attributeValue : null;
+			} else if (attributeName.equalsIgnoreCase(SECURE)) {
+				secure = true;
+			} else if (attributeName.equalsIgnoreCase(HTTP_ONLY)) {
+				httpOnly = true;
+			}
+
+			start = end + 1;
+		}
+
+		// Max-Age takes precedence over Expires
+		boolean persistent = hasMaxAge || expires != -1;
+		long expiresAt = hasMaxAge ? maxAgeExpiresAt
+				: expires != -1 ? expires : Long.MAX_VALUE;
+
+		boolean hostOnly = domain == null;
+
+		if (hostOnly) {
+			domain = host;
+		} else if (!domainMatches(host, domain)) {
+			return null;
+		}
+
+		if (path == null) {
+			path = getDefaultPath(requestPath);
+		}
+
+		return new Cookie(name, value, domain, path, expiresAt, now,
+				persistent, hostOnly, secure, httpOnly);
+	}
+
+	/**
+	 * @return true, if host is the domain or its subdomain.
+	 */
+	static boolean domainMatches(final String host, final String domain) {
+		if (host.equals(domain)) {
+			return true;
+		}
+
+		return host.endsWith(domain)
+				&& host.charAt(host.length() - domain.length() - 1) == '.'
+				&& !isIpAddress(host);
+	}
+
+	/**
+	 * @return true, if request path is the cookie path or below it.
+	 */
+	static boolean pathMatches(final String requestPath, final String path) {
+		if (!requestPath.startsWith(path)) {
+			return false;
+		}
+
+		return requestPath.length() == path.length() || path.endsWith("/")
+				|| requestPath.charAt(path.length()) == '/';
+	}
+
+	/**
+	 * @return Request path up to its last '/', or "/" if none.
+	 */
+	static String getDefaultPath(final String requestPath) {
+		if (requestPath == null || !requestPath.startsWith("/")) {
+			return "/";
+		}
+
+		int slash = requestPath.lastIndexOf('/');
+
+		return slash > 0 ? requestPath.substring(0, slash) : "/";
+	}
+
+	/**
+	 * Parses cookie date with the algorithm of RFC 6265 section 5.1.1, which
+	 * accepts all the date formats used by servers.
+	 * 
+	 * @return Time in milliseconds or -1 if date is invalid.
+	 */
+	static long parseDate(final String date) {
+		int hour = -1;
+		int minute = -1;
+		int second = -1;
+		int day = -1;
+		int month = -1;
+		int year = -1;
+
+		int position = 0;
+		int length = date.length();
+
+		while (position < length) {
+			while (position < length && isDelimiter(date.charAt(position))) {
+				position++;
+			}
+
+			int end = position;
+
+			while (end < length && !isDelimiter(date.charAt(end))) {
+				end++;
+			}
+
+			if (position == end) {
+				break;
+			}
+
+			String token = date.substring(position, end);
+			int[] time;
+
+			if (hour == -1 && (time = parseTime(token)) != null) {
+				hour = time[0];
+				minute = time[1];
+				second = time[2];
+			} else if (day == -1 && startsWithDigits(token, 1, 2)) {
+				day = parseLeadingDigits(token);
+			} else if (month == -1 && parseMonth(token) != -1) {
+				month = parseMonth(token);
+			} else if (year == -1 && startsWithDigits(token, 2, 4)) {
+				year = parseLeadingDigits(token);
+			}
+
+			position = end;
+		}
+
+		if (year >= 70 && year <= 99) {
+			year += 1900;
+		} else if (year >= 0 && year <= 69) {
+			year += 2000;
+		}
+
+		if (hour == -1 || day < 1 || day > 31 || month == -1 || year < 1601
+				|| hour > 23 || minute > 59 || second > 59) {
+			return -1;
+		}
+
+		Calendar calendar = Calendar.getInstance(UTC, Locale.US);
+		calendar.clear();
+		calendar.setLenient(false);
+		calendar.set(year, month, day, hour, minute, second);
+
+		try {
+			return calendar.getTimeInMillis();
+		} catch (IllegalArgumentException e) {
+			// Day does not exist in the month
+			return -1;
+		}
+	}
+
+	private static boolean isMaxAge(final String value) {
+		int start = value.startsWith("-") ? 1 : 0;
+
+		if (value.length() == start) {
+			return false;
+		}
+
+		for (int i = start; i < value.length(); i++) {
+			if (!isDigit(value.charAt(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static long parseMaxAge(final String value, final long now) {
+		if (value.startsWith("-")) {
+			return Long.MIN_VALUE;
+		}
+
+		long seconds;
+
+		try {
+			seconds = Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			// Too large
+			return Long.MAX_VALUE;
+		}
+
+		if (seconds == 0) {
+			return Long.MIN_VALUE;
+		}
+
+		return seconds > (Long.MAX_VALUE - now) / 1000 ? Long.MAX_VALUE : now
+				+ seconds * 1000;
+	}
+
+	private static boolean isIpAddress(final String host) {
+		if (host.indexOf(':') != -1) {
+			return true;
+		}
+
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+
+			if (c != '.' && !isDigit(c)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isDelimiter(final char c) {
+		return c == 0x09 || (c >= 0x20 && c <= 0x2F)
+				|| (c >= 0x3B && c <= 0x40) || (c >= 0x5B && c <= 0x60)
+				|| (c >= 0x7B && c <= 0x7E);
+	}
+
+	/**
+	 * @return Hour, minute and second of token 1*2DIGIT ":" 1*2DIGIT ":"
+	 *         1*2DIGIT or <code>null</code> if token is not a time.
+	 */
+	private static int[] parseTime(final String token) {
+		int[] time = new int[3];
+		int position = 0;
+
+		for (int i = 0; i < 3; i++) {
+			if (i > 0) {
+				if (position >= token.length() || token.charAt(position) != ':') {
+					return null;
+				}
+
+				position++;
+			}
+
+			int start = position;
+			int value = 0;
+
+			while (position < token.length() && position - start < 2
+					&& isDigit(token.charAt(position))) {
+				value = value * 10 + token.charAt(position) - '0';
+				position++;
+			}
+
+			if (position == start) {
+				return null;
+			}
+
+			time[i] = value;
+		}
+
+		if (position < token.length()
+				&& isDigit(token.charAt(position))) {
+			return null;
+		}
+
+		return time;
+	}
+
+	/**
+	 * @return true, if token starts with minDigits to maxDigits digits not
+	 *         followed by a digit.
+	 */
+	private static boolean startsWithDigits(final String token,
+			final int minDigits, final int maxDigits) {
+		int count = 0;
+
+		while (count < token.length() && isDigit(token.charAt(count))) {
+			count++;
+		}
+
+		return count >= minDigits && count <= maxDigits;
+	}
+
+	private static int parseLeadingDigits(final String token) {
+		int value = 0;
+
+		for (int i = 0; i < token.length()
+				&& isDigit(token.charAt(i)); i++) {
+			value = value * 10 + token.charAt(i) - '0';
+		}
+
+		return value;
+	}
+
+	private static int parseMonth(final String token) {
+		if (token.length() < 3) {
+			return -1;
+		}
+
+		for (int i = 0; i < MONTHS.length; i++) {
+			if (token.regionMatches(true, 0, MONTHS[i], 0, 3)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private CookieParser() {
+	}
+}
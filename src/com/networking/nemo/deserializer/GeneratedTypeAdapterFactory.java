@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.deserializer;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * {@link TypeAdapterFactory} providing the adapters generated for
+ * {@link JsonModel} classes. Returns <code>null</code> for other classes and
+ * for models whose adapter was not generated, so Gson falls back to reflection.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class GeneratedTypeAdapterFactory implements TypeAdapterFactory {
+
+	public static final String ADAPTER_SUFFIX = "$$JsonAdapter";
+
+	private final boolean mCheckRequired;
+
+	/**
+	 * @param checkRequired
+	 *            true, if adapters should check {@link JsonRequired} fields.
+	 */
+	public GeneratedTypeAdapterFactory(final boolean checkRequired) {
+		mCheckRequired = checkRequired;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+		Class<? super T> classOfT = type.getRawType();
+
+		if (!classOfT.isAnnotationPresent(JsonModel.class)) {
+			return null;
+		}
+
+		String adapterName = classOfT.getName() + ADAPTER_SUFFIX;
+
+		try {
+			Class<?> adapterClass = Class.forName(adapterName, true,
+					classOfT.getClassLoader());
+
+			return (TypeAdapter<T>) adapterClass.getConstructor(Gson.class,
+					boolean.class).newInstance(gson, mCheckRequired);
+		} catch (ClassNotFoundException e) {
+			// Processor was not ran for the model
+			return null;
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot create " + adapterName, e);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.deserializer;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.google.gson.TypeAdapter;
+
+/**
+ * Marks model class for the optional JsonModelProcessor, which generates a
+ * reflection free {@link TypeAdapter} named <code>Model$$JsonAdapter</code>
+ * with the {@link JsonRequired} checks compiled in. Generated adapters are
+ * picked up by {@link GeneratedTypeAdapterFactory}, classes without one are
+ * read with reflection.
+ * 
+ * Fields of the model must not be private and the model must have a no
+ * argument constructor which is not private. Keep classes named
+ * <code>*$$JsonAdapter</code> when shrinking the application.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface JsonModel {
+
+}
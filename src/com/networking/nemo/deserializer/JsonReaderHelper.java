@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.deserializer;
+
+import java.io.IOException;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads primitive values and Strings the same way the built-in adapters of
+ * Gson do. Used by the adapters generated for {@link JsonModel} classes, the
+ * caller handles Json null.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public final class JsonReaderHelper {
+
+	public static String readString(final JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.BOOLEAN) {
+			return Boolean.toString(in.nextBoolean());
+		}
+
+		return in.nextString();
+	}
+
+	public static boolean readBoolean(final JsonReader in) throws IOException {
+		// Lenient "true" and "false" Strings
+		if (in.peek() == JsonToken.STRING) {
+			return Boolean.parseBoolean(in.nextString());
+		}
+
+		return in.nextBoolean();
+	}
+
+	public static int readInt(final JsonReader in) throws IOException {
+		try {
+			return in.nextInt();
+		} catch (NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	public static long readLong(final JsonReader in) throws IOException {
+		try {
+			return in.nextLong();
+		} catch (NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	public static short readShort(final JsonReader in) throws IOException {
+		return (short) readInt(in);
+	}
+
+	public static byte readByte(final JsonReader in) throws IOException {
+		return (byte) readInt(in);
+	}
+
+	public static double readDouble(final JsonReader in) throws IOException {
+		return in.nextDouble();
+	}
+
+	public static float readFloat(final JsonReader in) throws IOException {
+		return (float) in.nextDouble();
+	}
+
+	public static char readChar(final JsonReader in) throws IOException {
+		String value = in.nextString();
+
+		if (value.length() != 1) {
+			throw new JsonSyntaxException("Expecting character, got: " + value);
+		}
+
+		return value.charAt(0);
+	}
+
+	private JsonReaderHelper() {
+	}
+}
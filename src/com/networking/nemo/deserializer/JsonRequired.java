@@ -26,6 +26,10 @@ import com.google.gson.annotations.SerializedName;
 /**
  * Annotation that can be used along with Gson annotation {@link SerializedName}
  * 
+ * Fields of superclasses and of nested objects, also inside lists, are checked
+ * as well. Without {@link SerializedName} the field name is reported as the
+ * missing key.
+ * 
  * WARNING: The member declared with this annotation MUST not be initialized,
  * otherwise the request will be considered OK.
  * 
@@ -16,20 +16,20 @@
 
 package com.networking.nemo.deserializer;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
-import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import com.networking.nemo.util.GsonRegistry;
 
 /**
  * Checks through class T object member fields for {@link JsonRequired}
  * annotations. If annotation found, but value <code>null</code>,
  * {@link JsonKeyNotFoundExpection} will be thrown and request handled as error.
+ * Uses the cached adapters of {@link GsonRegistry}.
  * 
  * @author Niko Rehnbck
  * 
@@ -38,32 +38,13 @@ import com.google.gson.annotations.SerializedName;
  */
 public class JsonRequiredDeserializer<T> implements JsonDeserializer<T> {
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public T deserialize(JsonElement element, Type type,
 			JsonDeserializationContext JDContext) throws JsonParseException {
-		T object = new Gson().fromJson(element, type);
-		Field[] fields = object.getClass().getDeclaredFields();
+		Class<T> classOfT = (Class<T>) TypeToken.get(type).getRawType();
 
-		for (Field f : fields) {
-			if (f.getAnnotation(JsonRequired.class) != null
-					&& f.getAnnotation(SerializedName.class) != null) {
-				try {
-					f.setAccessible(true);
-
-					if (f.get(object) == null) {
-						SerializedName key = f
-								.getAnnotation(SerializedName.class);
-
-						throw new JsonKeyNotFoundExpection(key.value());
-					}
-				} catch (IllegalArgumentException e) {
-					e.printStackTrace();
-				} catch (IllegalAccessException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		return object;
+		return GsonRegistry.getJsonRequiredAdapter(classOfT).fromJsonTree(
+				element);
 	}
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.deserializer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Precompiled list of the {@link JsonRequired} fields of a class and its
+ * superclasses. Fields are looked up and made accessible once per class, so
+ * checking a deserialized object only reads the fields.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+final class JsonRequiredPlan {
+
+	private static final ConcurrentHashMap<Class<?>, JsonRequiredPlan> PLANS = new ConcurrentHashMap<Class<?>, JsonRequiredPlan>();
+	private static final JsonRequiredPlan EMPTY_PLAN = new JsonRequiredPlan(
+			new Field[0], new String[0]);
+
+	private final Field[] mFields;
+	private final String[] mKeys;
+
+	private JsonRequiredPlan(final Field[] fields, final String[] keys) {
+		mFields = fields;
+		mKeys = keys;
+	}
+
+	/**
+	 * @param classOfT
+	 *            Class to be checked.
+	 * @return Cached plan of the class.
+	 */
+	public static JsonRequiredPlan get(final Class<?> classOfT) {
+		JsonRequiredPlan plan = PLANS.get(classOfT);
+
+		if (plan == null) {
+			plan = compile(classOfT);
+			PLANS.putIfAbsent(classOfT, plan);
+		}
+
+		return plan;
+	}
+
+	private static JsonRequiredPlan compile(final Class<?> classOfT) {
+		// Platform classes never have annotated fields
+		if (classOfT.isPrimitive() || classOfT.isArray()
+				|| classOfT.isInterface() || classOfT.getName().startsWith("java.")) {
+			return EMPTY_PLAN;
+		}
+
+		List<Field> fields = new ArrayList<Field>();
+		List<String> keys = new ArrayList<String>();
+
+		for (Class<?> c = classOfT; c != null && c != Object.class; c = c
+				.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				if (Modifier.isStatic(f.getModifiers())
+						|| !f.isAnnotationPresent(JsonRequired.class)) {
+					continue;
+				}
+
+				f.setAccessible(true);
+				fields.add(f);
+
+				SerializedName name = f.getAnnotation(SerializedName.class);
+				keys.add(name != null ? name.value() : f.getName());
+			}
+		}
+
+		if (fields.isEmpty()) {
+			return EMPTY_PLAN;
+		}
+
+		return new JsonRequiredPlan(fields.toArray(new Field[fields.size()]),
+				keys.toArray(new String[keys.size()]));
+	}
+
+	public boolean isEmpty() {
+		return mFields.length == 0;
+	}
+
+	/**
+	 * @param object
+	 *            Deserialized object.
+	 * @throws JsonKeyNotFoundExpection
+	 *             if required field has no value.
+	 */
+	public void check(final Object object) {
+		for (int i = 0; i < mFields.length; i++) {
+			try {
+				if (mFields[i].get(object) == null) {
+					throw new JsonKeyNotFoundExpection(mKeys[i]);
+				}
+			} catch (IllegalAccessException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.networking.nemo.deserializer;
+
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * {@link TypeAdapter} checking {@link JsonRequired} fields of class T right
+ * after reading it with the delegate adapter. Created by
+ * {@link JsonRequiredTypeAdapterFactory}.
+ * 
+ * @author Niko Rehnbck
+ * 
+ * @param <T>
+ *            Class of the object to be deserialized from Json.
+ */
+class JsonRequiredTypeAdapter<T> extends TypeAdapter<T> {
+
+	private final TypeAdapter<T> mDelegate;
+	private final JsonRequiredPlan mPlan;
+
+	public JsonRequiredTypeAdapter(final TypeAdapter<T> delegate,
+			final JsonRequiredPlan plan) {
+		mDelegate = delegate;
+		mPlan = plan;
+	}
+
+	@Override
+	public void write(JsonWriter out, T value) throws IOException {
+		mDelegate.write(out, value);
+	}
+
+	@Override
+	public T read(JsonReader in) throws IOException {
+		T object = mDelegate.read(in);
+
+		if (object != null) {
+			mPlan.check(object);
+		}
+
+		return object;
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.deserializer;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * {@link TypeAdapterFactory} wrapping the adapter of every class which has
+ * {@link JsonRequired} fields in a {@link JsonRequiredTypeAdapter}. Gson builds
+ * the adapters of fields and collection elements through the factories too, so
+ * nested objects and lists are checked while the JSON is streamed, without
+ * building a tree first.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class JsonRequiredTypeAdapterFactory implements TypeAdapterFactory {
+
+	@Override
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+		JsonRequiredPlan plan = JsonRequiredPlan.get(type.getRawType());
+
+		if (plan.isEmpty()) {
+			return null;
+		}
+
+		return new JsonRequiredTypeAdapter<T>(gson.getDelegateAdapter(this,
+				type), plan);
+	}
+}
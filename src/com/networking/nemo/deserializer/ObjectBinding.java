@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.deserializer;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Json keys of a class bound to its fields the same way Gson binds them by
+ * default, so the fields of an object can be read one key at a time. Used when
+ * one stream of Json fills several objects.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+final class ObjectBinding {
+
+	// Plain Gson creates instances the same way it does by default
+	private static final Gson CONSTRUCTOR_GSON = new Gson();
+
+	private final TypeAdapter<?> mConstructor;
+	private final Map<String, BoundField> mFields = new HashMap<String, BoundField>();
+
+	/**
+	 * @param gson
+	 *            Gson providing the adapters of the fields.
+	 * @param classOfT
+	 *            Class to be bound, see {@link #canBind(Class)}.
+	 * @param baseClass
+	 *            Superclass whose fields, and the fields of its superclasses,
+	 *            are not bound. {@link Object} to bind all fields.
+	 */
+	public ObjectBinding(final Gson gson, final Class<?> classOfT,
+			final Class<?> baseClass) {
+		mConstructor = CONSTRUCTOR_GSON.getAdapter(classOfT);
+
+		// Type arguments given to superclasses by their subclasses
+		Map<TypeVariable<?>, Type> typeArguments = new HashMap<TypeVariable<?>, Type>();
+
+		for (Class<?> c = classOfT; c != Object.class && c != baseClass; c = c
+				.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				if (isExcluded(f)) {
+					continue;
+				}
+
+				SerializedName name = f.getAnnotation(SerializedName.class);
+				String key = name != null ? name.value() : f.getName();
+
+				// Field of subclass hides the one of superclass
+				if (!mFields.containsKey(key)) {
+					Type fieldType = resolve(f.getGenericType(),
+							typeArguments);
+					f.setAccessible(true);
+					mFields.put(key, new BoundField(f, mFields.size(),
+							gson.getAdapter(TypeToken.get(fieldType))));
+				}
+			}
+
+			Type superType = c.getGenericSuperclass();
+
+			if (superType instanceof ParameterizedType) {
+				TypeVariable<?>[] variables = c.getSuperclass()
+						.getTypeParameters();
+				Type[] arguments = ((ParameterizedType) superType)
+						.getActualTypeArguments();
+
+				for (int i = 0; i < variables.length; i++) {
+					typeArguments.put(variables[i],
+							resolve(arguments[i], typeArguments));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces type variables with the arguments given by subclasses.
+	 * Variables without argument are left as is and read like Gson reads
+	 * them.
+	 * 
+	 * @param type
+	 *            Type of a field.
+	 * @param typeArguments
+	 *            Known arguments of type variables.
+	 * @return Resolved type.
+	 */
+	private static Type resolve(final Type type,
+			final Map<TypeVariable<?>, Type> typeArguments) {
+		if (type instanceof TypeVariable<?>) {
+			Type argument = typeArguments.get(type);
+
+			return argument != null ? argument : type;
+		}
+
+		if (type instanceof ParameterizedType) {
+			ParameterizedType parameterized = (ParameterizedType) type;
+			Type[] arguments = parameterized.getActualTypeArguments().clone();
+			boolean changed = false;
+
+			for (int i = 0; i < arguments.length; i++) {
+				Type argument = resolve(arguments[i], typeArguments);
+				changed |= argument != arguments[i];
+				arguments[i] = argument;
+			}
+
+			return changed ? new ResolvedParameterizedType(
+					parameterized.getOwnerType(),
+					parameterized.getRawType(), arguments) : type;
+		}
+
+		return type;
+	}
+
+	/**
+	 * @param classOfT
+	 *            Class to be checked.
+	 * @return true, if class is a plain object Gson reads field by field.
+	 */
+	public static boolean canBind(final Class<?> classOfT) {
+		return !classOfT.isPrimitive() && !classOfT.isArray()
+				&& !classOfT.isInterface() && !classOfT.isEnum()
+				&& !Modifier.isAbstract(classOfT.getModifiers())
+				&& !Collection.class.isAssignableFrom(classOfT)
+				&& !Map.class.isAssignableFrom(classOfT)
+				&& !JsonElement.class.isAssignableFrom(classOfT)
+				&& !classOfT.getName().startsWith("java.");
+	}
+
+	private static boolean isExcluded(final Field f) {
+		// Same as default Excluder of Gson
+		return (f.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) != 0
+				|| f.isSynthetic() || f.getType().isAnonymousClass()
+				|| f.getType().isLocalClass();
+	}
+
+	public Object newInstance() {
+		return mConstructor.fromJsonTree(new JsonObject());
+	}
+
+	/**
+	 * @param key
+	 *            Json key.
+	 * @return Field bound to the key or <code>null</code> if none.
+	 */
+	public BoundField get(final String key) {
+		return mFields.get(key);
+	}
+
+	public int size() {
+		return mFields.size();
+	}
+
+	/**
+	 * Parameterized type with resolved arguments, equal to the one of the
+	 * runtime.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	private static final class ResolvedParameterizedType implements
+			ParameterizedType {
+
+		private final Type mOwnerType;
+		private final Type mRawType;
+		private final Type[] mArguments;
+
+		private ResolvedParameterizedType(final Type ownerType,
+				final Type rawType, final Type[] arguments) {
+			mOwnerType = ownerType;
+			mRawType = rawType;
+			mArguments = arguments;
+		}
+
+		@Override
+		public Type[] getActualTypeArguments() {
+			return mArguments.clone();
+		}
+
+		@Override
+		public Type getRawType() {
+			return mRawType;
+		}
+
+		@Override
+		public Type getOwnerType() {
+			return mOwnerType;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof ParameterizedType)) {
+				return false;
+			}
+
+			ParameterizedType other = (ParameterizedType) o;
+
+			return mRawType.equals(other.getRawType())
+					&& (mOwnerType == null ? other.getOwnerType() == null
+							: mOwnerType.equals(other.getOwnerType()))
+					&& Arrays.equals(mArguments,
+							other.getActualTypeArguments());
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(mArguments) ^ mRawType.hashCode()
+					^ (mOwnerType != null ? mOwnerType.hashCode() : 0);
+		}
+	}
+
+	/**
+	 * Field with the adapter reading its value.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	static final class BoundField {
+
+		private final Field mField;
+		private final int mIndex;
+		private final TypeAdapter<?> mAdapter;
+
+		private BoundField(final Field field, final int index,
+				final TypeAdapter<?> adapter) {
+			mField = field;
+			mIndex = index;
+			mAdapter = adapter;
+		}
+
+		/**
+		 * @return Index of the field in its binding.
+		 */
+		public int getIndex() {
+			return mIndex;
+		}
+
+		public void read(final JsonReader in, final Object target)
+				throws IOException {
+			set(target, mAdapter.read(in));
+		}
+
+		public void read(final JsonElement element, final Object target) {
+			set(target, mAdapter.fromJsonTree(element));
+		}
+
+		private void set(final Object target, final Object value) {
+			// Null leaves primitive to its default value
+			if (value == null && mField.getType().isPrimitive()) {
+				return;
+			}
+
+			try {
+				mField.set(target, value);
+			} catch (IllegalAccessException e) {
+				throw new JsonSyntaxException(e);
+			}
+		}
+	}
+}
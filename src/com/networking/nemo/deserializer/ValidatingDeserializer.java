@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.deserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.networking.nemo.deserializer.ObjectBinding.BoundField;
+import com.networking.nemo.request.JsonNetworkRequestError;
+import com.networking.nemo.util.GsonRegistry;
+
+/**
+ * Reads the success object and the validation object of a response in one
+ * pass over the Json. Keys used by only one of the objects are streamed
+ * straight into it, keys used by both are read once into a small tree. As soon
+ * as every key of the validation object has been read it is validated, and if
+ * it is not valid the rest of the success object is skipped.
+ * 
+ * Values of the success object read before the validation object is complete
+ * are kept as trees and bound only if it is valid, so {@link JsonRequired}
+ * fields, nested ones as well, are checked only for valid responses.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public final class ValidatingDeserializer {
+
+	private static final ConcurrentHashMap<Class<?>, ObjectBinding> SUCCESS_BINDINGS = new ConcurrentHashMap<Class<?>, ObjectBinding>();
+	private static final ConcurrentHashMap<Class<?>, ObjectBinding> ERROR_BINDINGS = new ConcurrentHashMap<Class<?>, ObjectBinding>();
+	private static final TypeAdapter<JsonElement> JSON_ELEMENT_ADAPTER = new Gson()
+			.getAdapter(JsonElement.class);
+
+	/**
+	 * Decides whether the validation object is valid.
+	 * 
+	 * @param <K>
+	 *            Class of the validation object.
+	 */
+	public interface Validator<K> {
+		public boolean isValid(K object);
+	}
+
+	/**
+	 * @param classOfSuccessfulObject
+	 *            Class of the success object.
+	 * @param classOfFailedObject
+	 *            Class of the validation object.
+	 * @return true, if both classes are plain objects which can be read in one
+	 *         pass. Classes with generated adapters are read by them instead.
+	 */
+	public static boolean canDeserialize(final Class<?> classOfSuccessfulObject,
+			final Class<?> classOfFailedObject) {
+		return ObjectBinding.canBind(classOfSuccessfulObject)
+				&& ObjectBinding.canBind(classOfFailedObject)
+				&& !classOfSuccessfulObject.isAnnotationPresent(JsonModel.class)
+				&& !classOfFailedObject.isAnnotationPresent(JsonModel.class);
+	}
+
+	/**
+	 * @param in
+	 *            Reader positioned at the start of a Json object.
+	 * @param classOfSuccessfulObject
+	 *            Class of the success object.
+	 * @param classOfFailedObject
+	 *            Class of the validation object.
+	 * @param validator
+	 *            Validator of the validation object.
+	 * @return Result holding both objects, success object is
+	 *         <code>null</code> if not valid.
+	 * @throws IOException
+	 *             if Json cannot be read.
+	 * @throws JsonKeyNotFoundExpection
+	 *             if required field of valid success object has no value.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T, K> Result<T, K> deserialize(final JsonReader in,
+			final Class<T> classOfSuccessfulObject,
+			final Class<K> classOfFailedObject, final Validator<K> validator)
+			throws IOException {
+		ObjectBinding successBinding = getBinding(SUCCESS_BINDINGS,
+				classOfSuccessfulObject);
+		ObjectBinding errorBinding = getBinding(ERROR_BINDINGS,
+				classOfFailedObject);
+
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			K error = null;
+
+			return new Result<T, K>(null, error, validator.isValid(error),
+					false);
+		}
+
+		T success = (T) successBinding.newInstance();
+		K error = (K) errorBinding.newInstance();
+
+		boolean[] errorKeysRead = new boolean[errorBinding.size()];
+		int errorKeyReadCount = 0;
+		boolean validated = errorBinding.size() == 0;
+		boolean valid = validated && validator.isValid(error);
+		boolean validatedEarly = false;
+
+		// Success values read before validation, bound only if valid so
+		// required fields are not checked for invalid responses
+		List<BoundField> deferredFields = new ArrayList<BoundField>();
+		List<JsonElement> deferredValues = new ArrayList<JsonElement>();
+
+		in.beginObject();
+
+		while (in.hasNext()) {
+			String key = in.nextName();
+
+			// Rest of the invalid success object is not needed
+			if (validated && !valid) {
+				validatedEarly = true;
+				in.skipValue();
+				continue;
+			}
+
+			BoundField successField = successBinding.get(key);
+			BoundField errorField = errorBinding.get(key);
+
+			if (errorField == null) {
+				if (successField == null) {
+					in.skipValue();
+				} else if (validated) {
+					successField.read(in, success);
+				} else {
+					deferredFields.add(successField);
+					deferredValues.add(JSON_ELEMENT_ADAPTER.read(in));
+				}
+
+				continue;
+			}
+
+			if (successField == null) {
+				errorField.read(in, error);
+			} else {
+				JsonElement element = JSON_ELEMENT_ADAPTER.read(in);
+				errorField.read(element, error);
+				deferredFields.add(successField);
+				deferredValues.add(element);
+			}
+
+			if (!errorKeysRead[errorField.getIndex()]) {
+				errorKeysRead[errorField.getIndex()] = true;
+				errorKeyReadCount++;
+			}
+
+			// Validation object is complete
+			if (!validated && errorKeyReadCount == errorKeysRead.length) {
+				validated = true;
+				valid = validator.isValid(error);
+			}
+
+			if (validated && valid) {
+				bindDeferred(deferredFields, deferredValues, success);
+			}
+		}
+
+		in.endObject();
+
+		if (!validated) {
+			valid = validator.isValid(error);
+		}
+
+		if (!valid) {
+			return new Result<T, K>(null, error, false, validatedEarly);
+		}
+
+		bindDeferred(deferredFields, deferredValues, success);
+		JsonRequiredPlan.get(classOfSuccessfulObject).check(success);
+
+		return new Result<T, K>(success, error, true, false);
+	}
+
+	private static void bindDeferred(final List<BoundField> fields,
+			final List<JsonElement> values, final Object target) {
+		for (int i = 0; i < fields.size(); i++) {
+			fields.get(i).read(values.get(i), target);
+		}
+
+		fields.clear();
+		values.clear();
+	}
+
+	private static ObjectBinding getBinding(
+			final ConcurrentHashMap<Class<?>, ObjectBinding> bindings,
+			final Class<?> classOfT) {
+		ObjectBinding binding = bindings.get(classOfT);
+
+		if (binding == null) {
+			// Nested objects of the success object are checked as well,
+			// fields of the error base class are never in the response
+			binding = bindings == SUCCESS_BINDINGS ? new ObjectBinding(
+					GsonRegistry.getJsonRequiredGson(), classOfT, Object.class)
+					: new ObjectBinding(GsonRegistry.getGson(), classOfT,
+							JsonNetworkRequestError.class);
+			bindings.putIfAbsent(classOfT, binding);
+		}
+
+		return binding;
+	}
+
+	/**
+	 * Objects read by {@link ValidatingDeserializer}.
+	 * 
+	 * @param <T>
+	 *            Class of the success object.
+	 * @param <K>
+	 *            Class of the validation object.
+	 */
+	public static final class Result<T, K> {
+
+		private final T mSuccess;
+		private final K mError;
+		private final boolean mValid;
+		private final boolean mValidatedEarly;
+
+		private Result(final T success, final K error, final boolean valid,
+				final boolean validatedEarly) {
+			mSuccess = success;
+			mError = error;
+			mValid = valid;
+			mValidatedEarly = validatedEarly;
+		}
+
+		public T getSuccess() {
+			return mSuccess;
+		}
+
+		public K getError() {
+			return mError;
+		}
+
+		public boolean isValid() {
+			return mValid;
+		}
+
+		/**
+		 * @return true, if validation failed before the end of the Json and
+		 *         the rest of the success object was skipped.
+		 */
+		public boolean isValidatedEarly() {
+			return mValidatedEarly;
+		}
+	}
+
+	private ValidatingDeserializer() {
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.enums;
+
+/**
+ * Policy for using the disk cache of responses. With STALE_WHILE_REVALIDATE
+ * the cached result is delivered right away while the request is ran, and the
+ * listener is called again only if the response has changed. Without network
+ * the cached result is delivered instead of an error.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public enum CachePolicy {
+
+	NETWORK_ONLY, STALE_WHILE_REVALIDATE;
+}
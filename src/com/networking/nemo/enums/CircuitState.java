@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.enums;
+
+/**
+ * State of the circuit breaker of a host.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public enum CircuitState {
+
+	/**
+	 * Requests are sent normally.
+	 */
+	CLOSED,
+
+	/**
+	 * Host has failed, requests fail without being sent.
+	 */
+	OPEN,
+
+	/**
+	 * Limited count of probe requests is sent to see if host has recovered.
+	 */
+	HALF_OPEN;
+}
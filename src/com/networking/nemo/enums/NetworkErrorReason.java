@@ -24,5 +24,5 @@ package com.networking.nemo.enums;
  */
 public enum NetworkErrorReason {
 
-	NONE, NO_NETWORK, HTTP_ERROR, KEY_NOT_FOUND, VALIDATION_ERROR;
+	NONE, NO_NETWORK, HTTP_ERROR, KEY_NOT_FOUND, VALIDATION_ERROR, QUEUED_OFFLINE, CIRCUIT_OPEN;
 }
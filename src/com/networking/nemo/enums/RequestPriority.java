@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.enums;
+
+/**
+ * Priority of a network request. Requests with higher priority are always
+ * dispatched before requests with lower priority, requests with the same
+ * priority are dispatched in the order they were executed.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public enum RequestPriority {
+
+	IMMEDIATE, HIGH, NORMAL, LOW, PREFETCH;
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.enums;
+
+/**
+ * Class of failure after which request can be retried.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public enum RetryableFailure {
+
+	/**
+	 * Connection could not be made or was lost, no response.
+	 */
+	CONNECTION_FAILURE,
+
+	/**
+	 * Server did not answer in time.
+	 */
+	TIMEOUT,
+
+	/**
+	 * Status 502, 503 or 504.
+	 */
+	SERVER_UNAVAILABLE,
+
+	/**
+	 * Other 5xx status.
+	 */
+	SERVER_ERROR,
+
+	/**
+	 * Status 429.
+	 */
+	TOO_MANY_REQUESTS;
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.hedge;
+
+import java.util.Arrays;
+
+import com.networking.nemo.util.TokenBucket;
+
+/**
+ * Decides when a duplicate of a slow request is sent. Hedge delay is the
+ * chosen percentile of the latencies of recent requests, so only the slowest
+ * requests get a hedge. Hedges are limited by a {@link TokenBucket}, so they
+ * stay under a fixed fraction of the requests.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class HedgePolicy {
+
+	private static final double DEFAULT_PERCENTILE = 0.95;
+	private static final long DEFAULT_MIN_DELAY_MILLIS = 50;
+	private static final double DEFAULT_HEDGE_RATIO = 0.05;
+	private static final int DEFAULT_MAX_TOKENS = 5;
+
+	// Latencies of this many recent requests are kept
+	private static final int SAMPLE_COUNT = 128;
+
+	// No hedging until there are this many latencies
+	private static final int MIN_SAMPLE_COUNT = 20;
+
+	private final double mPercentile;
+	private final long mMinDelayMillis;
+	private final TokenBucket mTokenBucket;
+
+	// Guarded by this
+	private final long[] mSamples = new long[SAMPLE_COUNT];
+	private int mSampleCount = 0;
+	private int mNextSample = 0;
+	private long mDelayMillis = -1;
+	private boolean mDelayValid = false;
+
+	public HedgePolicy() {
+		this(DEFAULT_PERCENTILE, DEFAULT_MIN_DELAY_MILLIS,
+				DEFAULT_HEDGE_RATIO, DEFAULT_MAX_TOKENS);
+	}
+
+	/**
+	 * @param percentile
+	 *            Percentile of recent latencies after which a hedge is sent,
+	 *            between 0 and 1.
+	 * @param minDelayMillis
+	 *            Hedge is never sent sooner than this.
+	 * @param hedgeRatio
+	 *            Tokens deposited for each request, which is the long term
+	 *            maximum ratio of hedges to requests.
+	 * @param maxTokens
+	 *            Maximum count of saved hedges.
+	 */
+	public HedgePolicy(final double percentile, final long minDelayMillis,
+			final double hedgeRatio, final int maxTokens) {
+		if (percentile <= 0 || percentile >= 1) {
+			throw new IllegalArgumentException(
+					"Parameter percentile must be in range (0, 1).");
+		}
+
+		mPercentile = percentile;
+		mMinDelayMillis = minDelayMillis;
+		mTokenBucket = new TokenBucket(hedgeRatio, maxTokens);
+	}
+
+	/**
+	 * Called when request is sent for the first time.
+	 */
+	public void onRequest() {
+		mTokenBucket.deposit();
+	}
+
+	/**
+	 * @param latencyMillis
+	 *            Time from sending one call of the request, the first one or
+	 *            a retry or hedge, to its response.
+	 */
+	public synchronized void onLatency(final long latencyMillis) {
+		mSamples[mNextSample] = latencyMillis;
+		mNextSample = (mNextSample + 1) % SAMPLE_COUNT;
+		mSampleCount = Math.min(mSampleCount + 1, SAMPLE_COUNT);
+		mDelayValid = false;
+	}
+
+	/**
+	 * @return Delay in milliseconds after which request without response is
+	 *         hedged, or -1 if there are not enough latencies yet.
+	 */
+	public synchronized long getHedgeDelayMillis() {
+		if (!mDelayValid) {
+			mDelayValid = true;
+
+			if (mSampleCount < MIN_SAMPLE_COUNT) {
+				mDelayMillis = -1;
+			} else {
+				long[] sorted = Arrays.copyOf(mSamples, mSampleCount);
+				Arrays.sort(sorted);
+
+				int index = (int) Math.ceil(mPercentile * mSampleCount) - 1;
+				mDelayMillis = Math.max(mMinDelayMillis,
+						sorted[Math.max(0, index)]);
+			}
+		}
+
+		return mDelayMillis;
+	}
+
+	/**
+	 * Withdraws token for a hedge.
+	 * 
+	 * @return true, if the hedge fits in the budget.
+	 */
+	public boolean tryHedge() {
+		return mTokenBucket.tryWithdraw();
+	}
+
+	/**
+	 * @return Count of hedges sent.
+	 */
+	public long getHedgeCount() {
+		return mTokenBucket.getWithdrawnCount();
+	}
+
+	/**
+	 * @return Count of hedges refused because the budget was spent.
+	 */
+	public long getRejectedCount() {
+		return mTokenBucket.getRejectedCount();
+	}
+}
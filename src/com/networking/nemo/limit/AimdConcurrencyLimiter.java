@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.limit;
+
+/**
+ * {@link ConcurrencyLimiter} using additive increase, multiplicative decrease.
+ * The limit grows by one after a successful request which used at least half
+ * of the limit, and is multiplied by backoff ratio after a dropped request or
+ * a request slower than the timeout.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class AimdConcurrencyLimiter implements ConcurrencyLimiter {
+
+	private static final int DEFAULT_INITIAL_LIMIT = 4;
+	private static final int DEFAULT_MIN_LIMIT = 1;
+	private static final int DEFAULT_MAX_LIMIT = 64;
+	private static final double DEFAULT_BACKOFF_RATIO = 0.9;
+	private static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+	private final int mMinLimit;
+	private final int mMaxLimit;
+	private final double mBackoffRatio;
+	private final long mTimeoutMillis;
+
+	private volatile int mLimit;
+
+	public AimdConcurrencyLimiter() {
+		this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT,
+				DEFAULT_BACKOFF_RATIO, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param initialLimit
+	 *            Limit before any requests have finished.
+	 * @param minLimit
+	 *            Limit never goes below this.
+	 * @param maxLimit
+	 *            Limit never goes above this.
+	 * @param backoffRatio
+	 *            Ratio the limit is multiplied with on drop, between 0.5 and
+	 *            1.
+	 * @param timeoutMillis
+	 *            Requests slower than this are handled as dropped.
+	 */
+	public AimdConcurrencyLimiter(final int initialLimit, final int minLimit,
+			final int maxLimit, final double backoffRatio,
+			final long timeoutMillis) {
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException(
+					"Limits must satisfy 1 <= minLimit <= maxLimit.");
+		}
+
+		if (backoffRatio < 0.5 || backoffRatio >= 1) {
+			throw new IllegalArgumentException(
+					"Parameter backoffRatio must be in range [0.5, 1).");
+		}
+
+		mMinLimit = minLimit;
+		mMaxLimit = maxLimit;
+		mBackoffRatio = backoffRatio;
+		mTimeoutMillis = timeoutMillis;
+		mLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	@Override
+	public int getLimit() {
+		return mLimit;
+	}
+
+	@Override
+	public synchronized void onSample(long rttMillis, int runningRequestCount,
+			boolean dropped) {
+		int limit = mLimit;
+
+		if (dropped || rttMillis > mTimeoutMillis) {
+			limit = (int) (limit * mBackoffRatio);
+		} else if (runningRequestCount * 2 >= limit) {
+			// Grow only when the limit is actually being used
+			limit = limit + 1;
+		}
+
+		mLimit = Math.max(mMinLimit, Math.min(mMaxLimit, limit));
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.limit;
+
+import com.networking.nemo.network.NetworkRequestManager;
+
+/**
+ * Strategy deciding how many requests {@link NetworkRequestManager} allows to
+ * run simultaneously. Manager reports the result of every finished request to
+ * the limiter, so the limit can adapt to the observed latency and errors.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public interface ConcurrencyLimiter {
+
+	/**
+	 * @return Current maximum count of simultaneously running requests.
+	 */
+	int getLimit();
+
+	/**
+	 * Called when a request has finished.
+	 * 
+	 * @param rttMillis
+	 *            Time from starting the request to receiving the response.
+	 * @param runningRequestCount
+	 *            Count of requests running when the request was started,
+	 *            including the request itself.
+	 * @param dropped
+	 *            true, if the request timed out, could not connect or the
+	 *            server reported it is overloaded.
+	 */
+	void onSample(long rttMillis, int runningRequestCount, boolean dropped);
+}
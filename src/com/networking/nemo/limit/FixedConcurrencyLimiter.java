@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.limit;
+
+/**
+ * {@link ConcurrencyLimiter} with a limit that never changes.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class FixedConcurrencyLimiter implements ConcurrencyLimiter {
+
+	private final int mLimit;
+
+	public FixedConcurrencyLimiter(final int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException(
+					"Parameter limit must be at least 1.");
+		}
+
+		mLimit = limit;
+	}
+
+	@Override
+	public int getLimit() {
+		return mLimit;
+	}
+
+	@Override
+	public void onSample(long rttMillis, int runningRequestCount,
+			boolean dropped) {
+		// Limit is fixed
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.limit;
+
+/**
+ * {@link ConcurrencyLimiter} adjusting the limit by the gradient between the
+ * long term and the short term average round trip time. When requests get
+ * slower than usual, queueing is assumed and the limit shrinks in proportion,
+ * otherwise the limit grows by a queue allowance of square root of the limit.
+ * Dropped requests move the limit towards half of its current value.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class GradientConcurrencyLimiter implements ConcurrencyLimiter {
+
+	private static final int DEFAULT_INITIAL_LIMIT = 4;
+	private static final int DEFAULT_MIN_LIMIT = 1;
+	private static final int DEFAULT_MAX_LIMIT = 64;
+
+	// Allowed ratio of short term to long term RTT before shrinking
+	private static final double RTT_TOLERANCE = 1.5;
+
+	// Weight of a new sample in the averages
+	private static final double SHORT_RTT_WEIGHT = 0.2;
+	private static final double LONG_RTT_WEIGHT = 0.01;
+
+	// Weight of a new limit, to smooth out the changes
+	private static final double SMOOTHING = 0.2;
+
+	private final int mMinLimit;
+	private final int mMaxLimit;
+
+	private double mEstimatedLimit;
+	private double mShortRtt = 0;
+	private double mLongRtt = 0;
+
+	private volatile int mLimit;
+
+	public GradientConcurrencyLimiter() {
+		this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+	}
+
+	/**
+	 * @param initialLimit
+	 *            Limit before any requests have finished.
+	 * @param minLimit
+	 *            Limit never goes below this.
+	 * @param maxLimit
+	 *            Limit never goes above this.
+	 */
+	public GradientConcurrencyLimiter(final int initialLimit,
+			final int minLimit, final int maxLimit) {
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException(
+					"Limits must satisfy 1 <= minLimit <= maxLimit.");
+		}
+
+		mMinLimit = minLimit;
+		mMaxLimit = maxLimit;
+		mLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		mEstimatedLimit = mLimit;
+	}
+
+	@Override
+	public int getLimit() {
+		return mLimit;
+	}
+
+	@Override
+	public synchronized void onSample(long rttMillis, int runningRequestCount,
+			boolean dropped) {
+		double rtt = Math.max(1, rttMillis);
+
+		if (mLongRtt == 0) {
+			mShortRtt = rtt;
+			mLongRtt = rtt;
+		} else {
+			mShortRtt += (rtt - mShortRtt) * SHORT_RTT_WEIGHT;
+			mLongRtt += (rtt - mLongRtt) * LONG_RTT_WEIGHT;
+		}
+
+		// Let the long term average recover after a slow period
+		if (mLongRtt > mShortRtt * 2) {
+			mLongRtt *= 0.95;
+		}
+
+		// Don't grow if the limit is not being used
+		if (!dropped && runningRequestCount * 2 < mEstimatedLimit) {
+			return;
+		}
+
+		double newLimit;
+
+		if (dropped) {
+			newLimit = mEstimatedLimit * 0.5;
+		} else {
+			double gradient = Math.max(0.5,
+					Math.min(1.0, RTT_TOLERANCE * mLongRtt / mShortRtt));
+			double queueSize = Math.sqrt(mEstimatedLimit);
+
+			newLimit = mEstimatedLimit * gradient + queueSize;
+		}
+
+		mEstimatedLimit = mEstimatedLimit * (1 - SMOOTHING) + newLimit
+				* SMOOTHING;
+		mEstimatedLimit = Math.max(mMinLimit,
+				Math.min(mMaxLimit, mEstimatedLimit));
+		mLimit = (int) mEstimatedLimit;
+	}
+}
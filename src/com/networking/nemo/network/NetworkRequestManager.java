@@ -16,44 +16,71 @@
 
 package com.networking.nemo.network;
 
-import java.net.URI;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.HttpStatus;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 
-import com.android.volley.AuthFailureError;
-import com.android.volley.NetworkResponse;
 import com.android.volley.Request.Method;
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.Response.ErrorListener;
-import com.android.volley.Response.Listener;
+import com.android.volley.RetryPolicy;
+import com.android.volley.TimeoutError;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.HttpHeaderParser;
-import com.android.volley.toolbox.JsonRequest;
-import com.android.volley.toolbox.Volley;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.networking.nemo.deserializer.JsonKeyNotFoundExpection;
-import com.networking.nemo.deserializer.JsonRequiredDeserializer;
+import com.networking.nemo.cache.DiskCache;
+import com.networking.nemo.cache.ResponseCache;
+import com.networking.nemo.circuit.CircuitBreaker;
+import com.networking.nemo.cookie.CookieJar;
+import com.networking.nemo.cookie.CookieLog;
+import com.networking.nemo.enums.CachePolicy;
+import com.networking.nemo.enums.CircuitState;
 import com.networking.nemo.enums.NetworkErrorReason;
+import com.networking.nemo.enums.NetworkState;
+import com.networking.nemo.enums.RetryableFailure;
+import com.networking.nemo.hedge.HedgePolicy;
+import com.networking.nemo.limit.AimdConcurrencyLimiter;
+import com.networking.nemo.limit.ConcurrencyLimiter;
+import com.networking.nemo.limit.FixedConcurrencyLimiter;
+import com.networking.nemo.limit.GradientConcurrencyLimiter;
+import com.networking.nemo.outbox.RequestOutbox;
 import com.networking.nemo.request.JsonNetworkRequest;
 import com.networking.nemo.request.JsonNetworkRequestError;
+import com.networking.nemo.request.JsonNetworkRequestGraph;
 import com.networking.nemo.request.NetworkRequestHandle;
-import com.networking.nemo.request.ValidatingJsonNetworkRequest;
+import com.networking.nemo.retry.RetryBudget;
+import com.networking.nemo.retry.RetryStrategy;
+import com.networking.nemo.transport.HttpUrlConnectionTransport;
+import com.networking.nemo.transport.Transport;
+import com.networking.nemo.transport.TransportCall;
+import com.networking.nemo.transport.TransportCallback;
+import com.networking.nemo.transport.TransportRequest;
+import com.networking.nemo.transport.TransportResponse;
+import com.networking.nemo.transport.VolleyTransport;
+import com.networking.nemo.util.ByteArrayPool;
+import com.networking.nemo.util.GsonRegistry;
 import com.networking.nemo.util.NemoLog;
 import com.networking.nemo.util.NetworkStateChecker;
+import com.networking.nemo.util.PooledByteArrayOutputStream;
+import com.networking.nemo.util.UrlHelper;
 
 /**
  * Class providing user interface for running network requests.
@@ -63,27 +90,88 @@ import com.networking.nemo.util.NetworkStateChecker;
  */
 public class NetworkRequestManager {
 
+	private static final String BODY_CONTENT_TYPE = "application/json; charset=utf-8";
+	private static final String BODY_CHARSET = "UTF-8";
+	private static final String DISPATCHER_THREAD_NAME = "nemo-dispatcher";
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int BODY_BUFFER_POOL_SIZE = 512 * 1024;
+	private static final String SET_COOKIE_KEY = "Set-Cookie";
+	private static final String COOKIE_KEY = "Cookie";
+	private static final String ETAG_KEY = "ETag";
+	private static final String LAST_MODIFIED_KEY = "Last-Modified";
+	private static final String IF_NONE_MATCH_KEY = "If-None-Match";
+	private static final String IF_MODIFIED_SINCE_KEY = "If-Modified-Since";
+	private static final String COOKIE_LOG_FILE_NAME = "nemo_cookies.log";
+	private static final int RESPONSE_CACHE_SIZE = 1024 * 1024;
+	private static final String DISK_CACHE_DIR_NAME = "nemo";
+	private static final int DISK_CACHE_SIZE = 10 * 1024 * 1024;
+	private static final String OUTBOX_FILE_NAME = "nemo_outbox.log";
+	private static final int OUTBOX_REPLAY_BATCH_SIZE = 10;
+	private static final long OUTBOX_REPLAY_INTERVAL_MS = 1000;
+
+	// Upper bound when counting retries of a request's RetryPolicy
+	private static final int MAX_TRANSPORT_RETRIES = 10;
+
 	// Singleton
 	private static NetworkRequestManager sNetworkRequestManager;
 
-	// Maximum count of Requests allowed to run simultaneously
-	private int mMaxRunningRequestCount = Integer.MAX_VALUE;
+	// Decides maximum count of Requests allowed to run simultaneously
+	private volatile ConcurrencyLimiter mConcurrencyLimiter = new FixedConcurrencyLimiter(
+			Integer.MAX_VALUE);
 
-	private LinkedBlockingQueue<JsonNetworkRequest<?, JsonNetworkRequestError>> mRequestQueue = new LinkedBlockingQueue<JsonNetworkRequest<?, JsonNetworkRequestError>>();
-	private Map<Integer, JsonNetworkRequest<?, JsonNetworkRequestError>> mRunningRequests = new ConcurrentHashMap<Integer, JsonNetworkRequest<?, JsonNetworkRequestError>>(
-			16, 0.75f, mMaxRunningRequestCount);
+	// Lock-free queue of executed requests waiting to be moved to scheduler
+	private ConcurrentLinkedQueue<RequestNode> mRequestQueue = new ConcurrentLinkedQueue<RequestNode>();
+	private RequestScheduler mRequestScheduler = new RequestScheduler();
+	private RequestIndex mRequestIndex = new RequestIndex();
+	private Map<Integer, JsonNetworkRequest<?, JsonNetworkRequestError>> mRunningRequests = new ConcurrentHashMap<Integer, JsonNetworkRequest<?, JsonNetworkRequestError>>();
 	private AtomicInteger mNetworkRequestIdGenerator = new AtomicInteger();
+	private AtomicBoolean mRunRequestsPosted = new AtomicBoolean();
+
+	// Queued or running requests identical requests can attach to
+	private Map<String, RequestNode> mCoalescingRequests = new HashMap<String, RequestNode>();
+	private volatile boolean mCoalescingEnabled = true;
 
-	private NetworkRequestCookieManager mNetworkRequestCookieManager;
+	private final Context mAppContext;
+	private final CookieJar mCookieJar = new CookieJar();
+	private boolean mCookiePersistenceEnabled = false;
 	private NetworkStateChecker mNetworkStateChecker;
-	private RequestQueue mVolleyQueue;
+	private volatile boolean mDispatchPaused = false;
+	private ResponseParser mResponseParser = new ResponseParser();
+	private volatile Transport mTransport;
+	private final ByteArrayPool mBodyBufferPool = new ByteArrayPool(
+			BODY_BUFFER_POOL_SIZE);
+	private final ResponseCache mResponseCache = new ResponseCache(
+			RESPONSE_CACHE_SIZE);
+	private final DiskCache mDiskCache;
+
+	// Retries done by the manager instead of transport, null when disabled
+	private volatile RetryStrategy mRetryStrategy;
+	private volatile RetryBudget mRetryBudget = new RetryBudget();
+
+	// Duplicates slow requests, null when disabled
+	private volatile HedgePolicy mHedgePolicy;
 
-	private Handler mNetworkRequestHandler = new Handler(Looper.getMainLooper());
+	// Fails requests to failing hosts fast, null when disabled
+	private volatile CircuitBreaker mCircuitBreaker;
+
+	// Requests which failed offline, null when disabled
+	private volatile RequestOutbox mOutbox;
+	private boolean mOutboxReplaying = false;
+
+	private Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+	// Handler of the thread running the scheduling, main thread by default
+	private volatile Handler mNetworkRequestHandler = mMainHandler;
+	private HandlerThread mDispatcherThread;
 
 	private NetworkRequestManager(final Context appContext) {
-		mNetworkRequestCookieManager = new NetworkRequestCookieManager();
+		mAppContext = appContext.getApplicationContext();
 		mNetworkStateChecker = NetworkStateChecker.getInstance(appContext);
-		mVolleyQueue = Volley.newRequestQueue(appContext);
+		mNetworkStateChecker.addListener(mNetworkStateListener);
+
+		mTransport = new VolleyTransport(appContext);
+		mDiskCache = new DiskCache(new File(appContext.getCacheDir(),
+				DISK_CACHE_DIR_NAME), DISK_CACHE_SIZE);
 	}
 
 	public static NetworkRequestManager getInstance(final Context appContext) {
@@ -105,12 +193,327 @@ public class NetworkRequestManager {
 				"Cloning NetworkRequestManager is not allowed.");
 	}
 
+	/**
+	 * Sets HTTP stack used to run requests, {@link VolleyTransport} by
+	 * default. Affects requests started after the call.
+	 * 
+	 * @param transport
+	 *            {@link Transport} to be used, e.g.
+	 *            {@link HttpUrlConnectionTransport}.
+	 */
+	public void setTransport(final Transport transport) {
+		if (transport == null) {
+			throw new IllegalArgumentException(
+					"Parameter transport cannot be null.");
+		}
+
+		mTransport = transport;
+	}
+
+	/**
+	 * @return Pool of request body buffers, whose counters show how many
+	 *         buffers have been allocated and reused.
+	 */
+	public ByteArrayPool getBodyBufferPool() {
+		return mBodyBufferPool;
+	}
+
 	public void setMaxRunningRequestCount(final int maxRunningRequestCount) {
-		mMaxRunningRequestCount = maxRunningRequestCount;
+		setConcurrencyLimiter(new FixedConcurrencyLimiter(
+				maxRunningRequestCount));
+	}
+
+	/**
+	 * Sets strategy for the maximum count of requests allowed to run
+	 * simultaneously, e.g. {@link AimdConcurrencyLimiter} or
+	 * {@link GradientConcurrencyLimiter} to adapt the limit to the observed
+	 * latency and errors. Replaces limit set with
+	 * {@link #setMaxRunningRequestCount(int)}.
+	 * 
+	 * @param concurrencyLimiter
+	 *            {@link ConcurrencyLimiter} to be used.
+	 */
+	public void setConcurrencyLimiter(
+			final ConcurrencyLimiter concurrencyLimiter) {
+		if (concurrencyLimiter == null) {
+			throw new IllegalArgumentException(
+					"Parameter concurrencyLimiter cannot be null.");
+		}
+
+		mConcurrencyLimiter = concurrencyLimiter;
+		runDelayed();
+	}
+
+	/**
+	 * Sets maximum count of requests allowed to run simultaneously for each
+	 * host without own limit. Global limit set with
+	 * {@link #setMaxRunningRequestCount(int)} applies as well.
+	 * 
+	 * @param maxRunningRequestCount
+	 *            Maximum count of running requests per host.
+	 */
+	public synchronized void setMaxRunningRequestCountPerHost(
+			final int maxRunningRequestCount) {
+		mRequestScheduler
+				.setDefaultMaxRunningRequestCountPerHost(maxRunningRequestCount);
+		runDelayed();
+	}
+
+	/**
+	 * Sets maximum count of requests allowed to run simultaneously for the
+	 * host. Requests to other hosts are ran even if this host is at its limit.
+	 * 
+	 * @param host
+	 *            Host name, e.g. "api.example.com".
+	 * @param maxRunningRequestCount
+	 *            Maximum count of running requests for the host.
+	 */
+	public synchronized void setMaxRunningRequestCount(final String host,
+			final int maxRunningRequestCount) {
+		mRequestScheduler.setMaxRunningRequestCount(
+				host.toLowerCase(Locale.US), maxRunningRequestCount);
+		runDelayed();
+	}
+
+	/**
+	 * Makes hosts share one limit of simultaneously running requests.
+	 * 
+	 * @param group
+	 *            Name of the host group.
+	 * @param maxRunningRequestCount
+	 *            Maximum count of running requests for all hosts of the group.
+	 * @param hosts
+	 *            Host names of the group.
+	 */
+	public synchronized void setHostGroup(final String group,
+			final int maxRunningRequestCount, final String... hosts) {
+		String[] lowerCaseHosts = new String[hosts.length];
+
+		for (int i = 0; i < hosts.length; i++) {
+			lowerCaseHosts[i] = hosts[i].toLowerCase(Locale.US);
+		}
+
+		mRequestScheduler.setHostGroup(group, lowerCaseHosts);
+		mRequestScheduler.setMaxRunningRequestCount(group,
+				maxRunningRequestCount);
+		runDelayed();
+	}
+
+	/**
+	 * Sets whether requests are scheduled, serialized and their responses
+	 * handled on a dedicated background thread instead of the main thread.
+	 * Listeners are always notified on the main thread.
+	 * 
+	 * @param dispatchOnBackgroundThread
+	 *            true, to use dedicated dispatcher thread.
+	 */
+	public synchronized void setDispatchOnBackgroundThread(
+			final boolean dispatchOnBackgroundThread) {
+		if (dispatchOnBackgroundThread == (mDispatcherThread != null)) {
+			return;
+		}
+
+		if (dispatchOnBackgroundThread) {
+			mDispatcherThread = new HandlerThread(DISPATCHER_THREAD_NAME,
+					Process.THREAD_PRIORITY_BACKGROUND);
+			mDispatcherThread.start();
+			mNetworkRequestHandler = new Handler(mDispatcherThread.getLooper());
+		} else {
+			final HandlerThread dispatcherThread = mDispatcherThread;
+			Handler dispatcherHandler = mNetworkRequestHandler;
+
+			mDispatcherThread = null;
+			mNetworkRequestHandler = mMainHandler;
+
+			// Let already posted work finish before quitting
+			dispatcherHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					dispatcherThread.quit();
+				}
+			});
+		}
+
+		// Run on the new thread
+		mNetworkRequestHandler.post(mRequestRunner);
+	}
+
+	/**
+	 * Sets whether identical requests, see
+	 * {@link JsonNetworkRequest#getShouldCoalesce()}, executed while one of
+	 * them is queued or running share one network request. Enabled by default.
+	 * 
+	 * @param coalescingEnabled
+	 *            true, to coalesce identical requests.
+	 */
+	public void setCoalescingEnabled(final boolean coalescingEnabled) {
+		mCoalescingEnabled = coalescingEnabled;
 	}
 
 	public void clearCookies() {
-		mNetworkRequestCookieManager.clearAllCookies();
+		mCookieJar.clear();
+	}
+
+	/**
+	 * Sets whether persistent cookies are kept over restarts, so sessions
+	 * survive a cold start. Cookies are written to an append-only log in the
+	 * files directory of the app and loaded in background when enabled.
+	 * Disabling deletes the log. Disabled by default.
+	 * 
+	 * @param cookiePersistenceEnabled
+	 *            true, to keep persistent cookies over restarts.
+	 */
+	public synchronized void setCookiePersistenceEnabled(
+			final boolean cookiePersistenceEnabled) {
+		if (mCookiePersistenceEnabled == cookiePersistenceEnabled) {
+			return;
+		}
+
+		mCookiePersistenceEnabled = cookiePersistenceEnabled;
+		mCookieJar.setCookieLog(cookiePersistenceEnabled ? new CookieLog(
+				new File(mAppContext.getFilesDir(), COOKIE_LOG_FILE_NAME))
+				: null);
+	}
+
+	public CookieJar getCookieJar() {
+		return mCookieJar;
+	}
+
+	/**
+	 * @return Cache of parsed results of requests with
+	 *         {@link JsonNetworkRequest#getCacheTtl()}, e.g. for changing its
+	 *         size or reading its hit counts.
+	 */
+	public ResponseCache getResponseCache() {
+		return mResponseCache;
+	}
+
+	/**
+	 * @return Disk cache of responses of requests with
+	 *         {@link CachePolicy#STALE_WHILE_REVALIDATE}.
+	 */
+	public DiskCache getDiskCache() {
+		return mDiskCache;
+	}
+
+	/**
+	 * Sets strategy for retrying failed requests. Only idempotent requests,
+	 * see {@link JsonNetworkRequest#isIdempotent()}, are retried and only
+	 * while the {@link RetryBudget} allows. Transport does not retry requests
+	 * while a strategy is set, {@link JsonNetworkRequest#getRetryPolicy()}
+	 * then only gives the timeout. Disabled by default.
+	 * 
+	 * @param retryStrategy
+	 *            {@link RetryStrategy} to be used, or <code>null</code> to let
+	 *            transport retry requests.
+	 */
+	public void setRetryStrategy(final RetryStrategy retryStrategy) {
+		mRetryStrategy = retryStrategy;
+	}
+
+	public RetryStrategy getRetryStrategy() {
+		return mRetryStrategy;
+	}
+
+	/**
+	 * Sets token bucket shared by all requests, keeping retries under a
+	 * fraction of the requests.
+	 * 
+	 * @param retryBudget
+	 *            {@link RetryBudget} to be used.
+	 */
+	public void setRetryBudget(final RetryBudget retryBudget) {
+		if (retryBudget == null) {
+			throw new IllegalArgumentException(
+					"Parameter retryBudget cannot be null.");
+		}
+
+		mRetryBudget = retryBudget;
+	}
+
+	public RetryBudget getRetryBudget() {
+		return mRetryBudget;
+	}
+
+	/**
+	 * Sets policy for hedging idempotent GET requests, see
+	 * {@link JsonNetworkRequest#isIdempotent()}. Request without response
+	 * after the hedge delay of the policy is sent again, the first response
+	 * is used and the other call is canceled. Disabled by default.
+	 * 
+	 * @param hedgePolicy
+	 *            {@link HedgePolicy} to be used, or <code>null</code> to
+	 *            disable.
+	 */
+	public void setHedgePolicy(final HedgePolicy hedgePolicy) {
+		mHedgePolicy = hedgePolicy;
+	}
+
+	public HedgePolicy getHedgePolicy() {
+		return mHedgePolicy;
+	}
+
+	/**
+	 * Sets circuit breaker of hosts. While the circuit of a host is open,
+	 * requests to it fail with {@link NetworkErrorReason#CIRCUIT_OPEN}
+	 * without taking a running slot. Request failing without response or with
+	 * status 429 or 5xx counts as a failure. Disabled by default.
+	 * 
+	 * @param circuitBreaker
+	 *            {@link CircuitBreaker} to be used, or <code>null</code> to
+	 *            disable.
+	 */
+	public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+		mCircuitBreaker = circuitBreaker;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return mCircuitBreaker;
+	}
+
+	/**
+	 * Sets whether requests with
+	 * {@link JsonNetworkRequest#getShouldQueueOffline()} are kept in a durable
+	 * outbox when there is no network, instead of only failing. Listener is
+	 * notified with {@link NetworkErrorReason#QUEUED_OFFLINE} and the request
+	 * is sent again when network state settles to
+	 * {@link NetworkState#CONNECTED}, also after a restart. Replayed requests
+	 * are sent one at a time in the order they failed, in small batches with a
+	 * pause between batches. Their responses are not delivered to listeners.
+	 * Disabling deletes pending requests. Disabled by default.
+	 * 
+	 * @param offlineQueueEnabled
+	 *            true, to queue requests made offline.
+	 */
+	public synchronized void setOfflineQueueEnabled(
+			final boolean offlineQueueEnabled) {
+		if ((mOutbox != null) == offlineQueueEnabled) {
+			return;
+		}
+
+		if (offlineQueueEnabled) {
+			mOutbox = new RequestOutbox(new File(mAppContext.getFilesDir(),
+					OUTBOX_FILE_NAME));
+			mOutbox.load(new RequestOutbox.OnLoadedListener() {
+				@Override
+				public void onLoaded(int pendingCount) {
+					if (pendingCount > 0) {
+						mNetworkRequestHandler.post(mOutboxReplayer);
+					}
+				}
+			});
+		} else {
+			mOutbox.delete();
+			mOutbox = null;
+		}
+	}
+
+	/**
+	 * @return Outbox of requests made offline, or <code>null</code> if not
+	 *         enabled with {@link #setOfflineQueueEnabled(boolean)}.
+	 */
+	public RequestOutbox getOutbox() {
+		return mOutbox;
 	}
 
 	public void setLogTag(final String tag) {
@@ -124,7 +527,7 @@ public class NetworkRequestManager {
 	 *            BaseJsonNetworkRequest to be executed.
 	 * @return {@link NetworkRequestHandle}
 	 */
-	public synchronized NetworkRequestHandle executeJsonRequest(
+	public NetworkRequestHandle executeJsonRequest(
 			final JsonNetworkRequest<?, ?> jsonNetworkRequest) {
 		// Skip null request
 		if (jsonNetworkRequest == null) {
@@ -158,35 +561,77 @@ public class NetworkRequestManager {
 	 *            List of BaseJsonNetworkRequest to be executed.
 	 * @return {@link NetworkRequestHandle}
 	 */
-	public synchronized NetworkRequestHandle executeJsonRequestsLinked(
+	public NetworkRequestHandle executeJsonRequestsLinked(
 			final List<JsonNetworkRequest<?, JsonNetworkRequestError>> jsonNetworkRequests) {
 		// Skip null or empty list
 		if (jsonNetworkRequests == null || jsonNetworkRequests.isEmpty()) {
 			return null;
 		}
 
-		int[] requestIds = new int[jsonNetworkRequests.size()];
+		// Link each request to the previous one
+		JsonNetworkRequestGraph graph = new JsonNetworkRequestGraph();
+		JsonNetworkRequest<?, ?> previous = null;
 
-		// Get the first id of this queue
-		final int startIdOfQueue = getNextNetworkRequestId();
+		for (JsonNetworkRequest<?, ?> jsonNetworkRequest : jsonNetworkRequests) {
+			if (previous != null) {
+				graph.addDependency(jsonNetworkRequest, previous);
+			} else {
+				graph.addRequest(jsonNetworkRequest);
+			}
+
+			previous = jsonNetworkRequest;
+		}
+
+		return executeJsonRequestGraph(graph);
+	}
+
+	/**
+	 * Executes all the NetworkRequests of the graph and notifies caller when
+	 * each request is finished. Request gets ran when all the requests it
+	 * depends on are completed, independent requests are ran in parallel.
+	 * 
+	 * @param graph
+	 *            {@link JsonNetworkRequestGraph} to be executed.
+	 * @return {@link NetworkRequestHandle}
+	 * @throws IllegalStateException
+	 *             if graph contains a dependency cycle.
+	 */
+	public NetworkRequestHandle executeJsonRequestGraph(
+			final JsonNetworkRequestGraph graph) {
+		// Skip null or empty graph
+		if (graph == null || graph.isEmpty()) {
+			return null;
+		}
 
-		for (int i = 0; i < jsonNetworkRequests.size(); i++) {
-			JsonNetworkRequest<?, ?> jsonNetworkRequest = (JsonNetworkRequest<?, ?>) jsonNetworkRequests
-					.get(i);
+		// Dependencies must be queued before their dependents
+		List<JsonNetworkRequest<?, ?>> sorted = graph.sortTopologically();
+		int[] requestIds = new int[sorted.size()];
 
+		for (int i = 0; i < sorted.size(); i++) {
 			// Get unique id for network request
 			final int id = getUniqueNetworkRequestId();
 
 			// Set unique id for request
-			jsonNetworkRequest.setId(id);
+			sorted.get(i).setId(id);
+
+			requestIds[i] = id;
+		}
+
+		List<RequestNode> nodes = new ArrayList<RequestNode>(sorted.size());
 
-			// Set id dependency and start id of queue
-			if (i > 0) {
-				jsonNetworkRequest.setDependsOnId(id - 1);
-				jsonNetworkRequest.setStartIdOfQueue(startIdOfQueue);
+		for (JsonNetworkRequest<?, ?> jsonNetworkRequest : sorted) {
+			// Set id dependencies
+			List<JsonNetworkRequest<?, ?>> dependencies = graph
+					.getDependencies(jsonNetworkRequest);
+			int[] dependsOnIds = new int[dependencies.size()];
+
+			for (int i = 0; i < dependencies.size(); i++) {
+				dependsOnIds[i] = dependencies.get(i).getId();
 			}
 
-			requestIds[i] = id;
+			setLegacyDependency(jsonNetworkRequest, dependsOnIds,
+					requestIds[0]);
+			nodes.add(new RequestNode(jsonNetworkRequest, dependsOnIds));
 		}
 
 		// Set request ids for NetworkRequestHandle
@@ -195,586 +640,1493 @@ public class NetworkRequestManager {
 		handle.setRequestIds(requestIds);
 
 		// Add to queue and execute/queue request
-		addToQueue((List<JsonNetworkRequest<?, JsonNetworkRequestError>>) jsonNetworkRequests);
+		addToQueue(nodes);
 		runDelayed();
 
 		return handle;
 	}
 
-	public synchronized <T> void onNetworkRequestsCanceled(int[] requestIds) {
+	/**
+	 * Cancels requests and notifies their listeners. Requests are looked up
+	 * from the request index, so the cost depends only on the count of ids.
+	 * 
+	 * @param requestIds
+	 *            Ids of the requests to be canceled.
+	 */
+	public void onNetworkRequestsCanceled(int[] requestIds) {
 		if (requestIds != null) {
-			for (Integer id : requestIds) {
-				// Remove from queue
-				Iterator<JsonNetworkRequest<?, JsonNetworkRequestError>> iter = mRequestQueue
-						.iterator();
-				while (iter.hasNext()) {
-					JsonNetworkRequest<?, ?> r = iter.next();
-
-					if (r.getId() == id) {
-						// Log
-						NemoLog.debug(NetworkRequestManager.class,
-								"cancel, url: " + r.getUrl());
-
-						iter.remove();
-						break;
-					}
+			List<RequestNode> nodes = new ArrayList<RequestNode>(
+					requestIds.length);
+
+			for (int id : requestIds) {
+				RequestNode node = mRequestIndex.get(id);
+
+				if (node != null) {
+					nodes.add(node);
 				}
+			}
 
-				// Remove from running commands and notify listener
-				JsonNetworkRequest<?, ?> r = mRunningRequests.remove(id);
-				r.getListener().onNetworkRequestCanceled();
+			cancelNodes(nodes);
+		}
+	}
 
-				// Log
-				NemoLog.debug(NetworkRequestManager.class,
-						"cancel, url: " + r.getUrl());
+	/**
+	 * Cancels all queued and running requests with the tag.
+	 * 
+	 * @param tag
+	 *            Tag set with {@link JsonNetworkRequest#setTag(Object)}.
+	 */
+	public void cancelByTag(final Object tag) {
+		if (tag != null) {
+			cancelNodes(mRequestIndex.getByTag(tag));
+		}
+	}
+
+	public void cancelAll() {
+		cancelNodes(mRequestIndex.getAll());
+	}
 
-				// Tell Volley to cancel
-				mVolleyQueue.cancelAll(id);
+	private void cancelNodes(final Collection<RequestNode> nodes) {
+		List<RequestNode> canceled = new ArrayList<RequestNode>(nodes.size());
+		List<RequestNode> notified = new ArrayList<RequestNode>(nodes.size());
+
+		for (RequestNode node : nodes) {
+			if (node.isCoalescable()) {
+				// Guarded so identical requests cannot attach meanwhile
+				cancelCoalescedNode(node, canceled, notified);
+			} else if (node.markCanceled()) {
+				// Skip requests which have already finished
+				canceled.add(node);
+				notified.add(node);
 			}
 		}
-	}
 
-	public synchronized void cancelAll() {
-		// Cancel all from queue
-		Iterator<JsonNetworkRequest<?, JsonNetworkRequestError>> iterQ = mRequestQueue
-				.iterator();
-		while (iterQ.hasNext()) {
-			JsonNetworkRequest<?, ?> r = iterQ.next();
+		if (canceled.isEmpty() && notified.isEmpty()) {
+			return;
+		}
 
-			// Log
-			NemoLog.debug(NetworkRequestManager.class,
-					"cancel, url: " + r.getUrl());
+		CircuitBreaker circuitBreaker = mCircuitBreaker;
+
+		for (RequestNode node : canceled) {
+			mRequestIndex.remove(node.getId());
+
+			// Free probe slot of the host
+			if (circuitBreaker != null && node.getCircuitHost() != null) {
+				circuitBreaker.onCanceled(node.getCircuitHost(),
+						node.takeCircuitProbe());
+			}
 
-			iterQ.remove();
+			// Tell transport to cancel
+			TransportCall call = node.getTransportCall();
+			if (call != null) {
+				call.cancel();
+			}
+
+			TransportCall hedgeCall = node.getHedgeCall();
+			if (hedgeCall != null) {
+				hedgeCall.cancel();
+			}
 		}
 
-		Iterator<Integer> iterR = mRunningRequests.keySet().iterator();
+		// Free running slots and release requests depending on canceled ones,
+		// canceled requests left in queues are skipped when polled
+		synchronized (this) {
+			for (RequestNode node : canceled) {
+				mRunningRequests.remove(node.getId());
+				mRequestScheduler.finish(node.getId());
+				removeCoalescingKey(node);
+			}
+		}
 
-		while (iterR.hasNext()) {
-			JsonNetworkRequest<?, ?> r = mRunningRequests.remove(iterR.next());
+		for (RequestNode node : notified) {
+			JsonNetworkRequest<?, ?> r = node.getRequest();
 
 			// Log
 			NemoLog.debug(NetworkRequestManager.class,
 					"cancel, url: " + r.getUrl());
+
+			// Notify listener
+			if (r.getListener() != null) {
+				r.getListener().onNetworkRequestCanceled();
+			}
+		}
+
+		// Start more requests if in queue
+		runDelayed();
+	}
+
+	/**
+	 * Cancels node taking part in coalescing. Shared request is canceled only
+	 * when neither the request running it nor any subscriber needs it.
+	 * 
+	 * @param node
+	 *            Node to be canceled.
+	 * @param canceled
+	 *            Nodes which need their request canceled.
+	 * @param notified
+	 *            Nodes whose listener needs to be notified.
+	 */
+	private synchronized void cancelCoalescedNode(final RequestNode node,
+			final List<RequestNode> canceled, final List<RequestNode> notified) {
+		RequestNode primary = node.getPrimary();
+
+		if (primary != null) {
+			// Subscriber of a shared request
+			if (!node.markCanceled()) {
+				return;
+			}
+
+			primary.removeSubscriber(node);
+			canceled.add(node);
+			notified.add(node);
+
+			// Cancel the shared request if nobody needs it anymore
+			if (primary.isOwnerCanceled() && !primary.hasSubscribers()
+					&& primary.markCanceled()) {
+				canceled.add(primary);
+			}
+		} else if (node.hasSubscribers()) {
+			// Keep running for subscribers, only notify own listener
+			if (!node.isOwnerCanceled()
+					&& (node.isQueued() || node.isRunning())) {
+				node.setOwnerCanceled(true);
+				notified.add(node);
+			}
+		} else if (node.markCanceled()) {
+			canceled.add(node);
+			removeCoalescingKey(node);
+
+			if (!node.isOwnerCanceled()) {
+				notified.add(node);
+			}
 		}
 	}
 
-	private int getNextNetworkRequestId() {
-		return mNetworkRequestIdGenerator.get();
+	/**
+	 * Removes node from the requests identical requests can attach to.
+	 * 
+	 * @param node
+	 *            Finished or canceled node.
+	 */
+	private void removeCoalescingKey(final RequestNode node) {
+		if (node.isCoalescable() && node.getPrimary() == null
+				&& mCoalescingRequests.get(node.getRequestKey()) == node) {
+			mCoalescingRequests.remove(node.getRequestKey());
+		}
 	}
 
 	private int getUniqueNetworkRequestId() {
 		return mNetworkRequestIdGenerator.getAndIncrement();
 	}
 
-	@SuppressWarnings("unchecked")
-	private <T, K> void addToQueue(
-			final JsonNetworkRequest<?, ?> jsonNetworkRequest) {
-		mRequestQueue
-				.add((JsonNetworkRequest<?, JsonNetworkRequestError>) jsonNetworkRequest);
+	/**
+	 * Fills in deprecated dependency fields of request run in a graph.
+	 */
+	@SuppressWarnings("deprecation")
+	private static void setLegacyDependency(
+			final JsonNetworkRequest<?, ?> jsonNetworkRequest,
+			final int[] dependsOnIds, final int startIdOfQueue) {
+		jsonNetworkRequest
+				.setDependsOnId(dependsOnIds.length > 0 ? dependsOnIds[dependsOnIds.length - 1]
+						: -1);
+		jsonNetworkRequest.setStartIdOfQueue(startIdOfQueue);
+	}
+
+	@SuppressWarnings("deprecation")
+	private void addToQueue(final JsonNetworkRequest<?, ?> jsonNetworkRequest) {
+		int dependsOnId = jsonNetworkRequest.getDependsOnId();
+
+		// Deprecated dependency set by caller, not coalesced with others
+		RequestNode node = dependsOnId >= 0 ? new RequestNode(
+				jsonNetworkRequest, new int[] { dependsOnId })
+				: new RequestNode(jsonNetworkRequest, mCoalescingEnabled
+						&& jsonNetworkRequest.getShouldCoalesce());
+
+		mRequestIndex.add(node);
+		mRequestQueue.add(node);
 	}
 
-	private <T, K> void addToQueue(
-			final List<JsonNetworkRequest<?, JsonNetworkRequestError>> requests) {
-		mRequestQueue.addAll(requests);
+	private void addToQueue(final List<RequestNode> nodes) {
+		for (RequestNode node : nodes) {
+			mRequestIndex.add(node);
+		}
+
+		mRequestQueue.addAll(nodes);
 	}
 
+	/**
+	 * Posts request runner unless it is already posted and not yet ran, so
+	 * a batch of executed requests triggers only one dispatch.
+	 */
 	private void runDelayed() {
-		mNetworkRequestHandler.removeCallbacks(mRequestRunner);
-		mNetworkRequestHandler.post(mRequestRunner);
+		if (mRunRequestsPosted.compareAndSet(false, true)) {
+			mNetworkRequestHandler.post(mRequestRunner);
+		}
 	}
 
 	private Runnable mRequestRunner = new Runnable() {
 		@Override
 		public void run() {
+			// Requests executed from now on need a new run
+			mRunRequestsPosted.set(false);
+
 			runRequests();
 		}
 	};
 
 	private void runRequests() {
-		if (mRequestQueue.size() > 0) {
-			try {
-				runRequestsFromQueue();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
+		runRequestsFromQueue();
 	}
 
-	private <T, K> void runRequestsFromQueue() throws InterruptedException {
-		Iterator<JsonNetworkRequest<?, JsonNetworkRequestError>> iter = mRequestQueue
-				.iterator();
+	/**
+	 * Moves executed requests from queue to scheduler.
+	 */
+	private void moveToScheduler() {
+		RequestNode node;
 
-		while (iter.hasNext()
-				&& mRunningRequests.size() < mMaxRunningRequestCount) {
-			// Get the base request
-			@SuppressWarnings("unchecked")
-			final JsonNetworkRequest<T, JsonNetworkRequestError> baseRequest = (JsonNetworkRequest<T, JsonNetworkRequestError>) iter
-					.next();
-
-			// Check if we can run it
-			if (isAllowedToRun(baseRequest)) {
-				// Now it's safe to remove from queue
-				iter.remove();
-
-				// If there is no network available notify listener
-				if (!mNetworkStateChecker.isNetworkConnected()) {
-					try {
-						JsonNetworkRequestError error = baseRequest
-								.getClassOfFailedObject().newInstance();
-						error.setReason(NetworkErrorReason.NO_NETWORK);
-						baseRequest.getListener().onNetworkRequestError(error);
-					} catch (InstantiationException e) {
-						e.printStackTrace();
-					} catch (IllegalAccessException e) {
-						e.printStackTrace();
-					}
+		while ((node = mRequestQueue.poll()) != null) {
+			if (node.isCoalescable() && !node.isCanceled()) {
+				// Attach to identical request if one is queued or running
+				RequestNode primary = mCoalescingRequests.get(node
+						.getRequestKey());
+
+				if (primary != null && node.markRunning()) {
+					primary.addSubscriber(node);
+
+					// Log
+					NemoLog.debug(NetworkRequestManager.class,
+							"coalesce, url: " + node.getRequest().getUrl());
 
 					continue;
 				}
 
-				// Create response listener
-				Listener<Object> responseListener = new Listener<Object>() {
+				mCoalescingRequests.put(node.getRequestKey(), node);
+			}
 
-					@SuppressWarnings("unchecked")
-					@Override
-					public void onResponse(Object response) {
-						// Remove from running requests
-						mRunningRequests.remove(baseRequest.getId());
+			mRequestScheduler.enqueue(node);
+		}
+	}
 
-						NetworkRequestListener<T, K> listener = (NetworkRequestListener<T, K>) baseRequest
-								.getListener();
+	/**
+	 * Marks request finished so requests depending on it can be ran.
+	 * 
+	 * @param node
+	 *            Node of the finished request.
+	 * @return Nodes of coalesced requests which get the same response.
+	 */
+	private synchronized List<RequestNode> finishRequest(final RequestNode node) {
+		int id = node.getId();
 
-						// Notify listener
-						if (listener != null) {
-							listener.onNetworkRequestSuccess((T) response);
-						}
+		mRequestIndex.remove(id);
+		mRunningRequests.remove(id);
+		mRequestScheduler.finish(id);
+		removeCoalescingKey(node);
 
-						// Start more requests if in queue
-						runDelayed();
-					}
-				};
+		// Subscribers get the same response
+		List<RequestNode> subscribers = node.takeSubscribers();
 
-				ErrorListener errorResponseListener = new ErrorListener() {
+		for (RequestNode subscriber : subscribers) {
+			subscriber.markFinished();
+			mRequestIndex.remove(subscriber.getId());
+		}
 
-					@SuppressWarnings("unchecked")
-					@Override
-					public void onErrorResponse(VolleyError error) {
-						NemoVolleyError e = (NemoVolleyError) error;
+		return subscribers;
+	}
 
-						JsonNetworkRequestError err = (JsonNetworkRequestError) e
-								.getErrorObject();
+	private synchronized <T, K> void runRequestsFromQueue() {
+		moveToScheduler();
 
-						// Check for JsonKeyNotFoundExpection
-						if (e.getCause() != null
-								&& e.getCause() instanceof JsonKeyNotFoundExpection) {
-							// Log
-							JsonKeyNotFoundExpection ex = (JsonKeyNotFoundExpection) e
-									.getCause();
+		// Resumed when network state settles
+		if (mDispatchPaused) {
+			return;
+		}
 
-							NemoLog.error(NetworkRequestManager.class,
-									"request url: " + baseRequest.getUrl());
-							NemoLog.error(
-									NetworkRequestManager.class,
-									"response missing field in JSON: "
-											+ ex.getMessage());
-
-							err.setReason(NetworkErrorReason.KEY_NOT_FOUND);
-						} else if (err.getHttpStatusCode() != HttpStatus.SC_OK) {
-							err.setReason(NetworkErrorReason.HTTP_ERROR);
-						}
+		while (mRunningRequests.size() < mConcurrencyLimiter.getLimit()) {
+			// Get the request with highest priority
+			final RequestNode node = mRequestScheduler.poll();
 
-						// Remove from running requests
-						mRunningRequests.remove(baseRequest.getId());
+			if (node == null) {
+				break;
+			}
 
-						NetworkRequestListener<T, K> listener = (NetworkRequestListener<T, K>) baseRequest
-								.getListener();
+			// Skip if canceled meanwhile
+			if (!node.markRunning()) {
+				continue;
+			}
 
-						if (listener != null) {
-							listener.onNetworkRequestError((K) err);
-						}
+			@SuppressWarnings("unchecked")
+			final JsonNetworkRequest<T, JsonNetworkRequestError> baseRequest = (JsonNetworkRequest<T, JsonNetworkRequestError>) node
+					.getRequest();
 
-						// Start more requests if in queue
-						runDelayed();
-					}
-				};
+			// Fresh cached result needs no transport or parsing
+			if (isResultCacheable(baseRequest)) {
+				Object cached = mResponseCache.getFresh(node.getRequestKey(),
+						System.currentTimeMillis());
 
-				// Create JsonNetworkRequest
-				Gson gson = new Gson();
-				String body = gson.toJson(baseRequest.getJsonBody());
+				if (cached != null) {
+					// Log
+					NemoLog.debug(NetworkRequestManager.class,
+							"cache hit, url: " + baseRequest.getUrl());
 
-				VolleyRequest<T, JsonNetworkRequestError> request = new VolleyRequest<T, JsonNetworkRequestError>(
-						(JsonNetworkRequest<T, JsonNetworkRequestError>) baseRequest,
-						body, responseListener, errorResponseListener);
-				request.setId(baseRequest.getId());
+					node.markFinished();
+					notifySuccess(node, finishRequest(node), cached);
 
-				// Change request running
-				mRunningRequests.put(baseRequest.getId(), baseRequest);
+					continue;
+				}
+			}
 
-				request.run(mVolleyQueue);
+			boolean staleWhileRevalidate = isStaleWhileRevalidate(baseRequest);
 
-				// Log
-				String logMethod = "";
-				switch (baseRequest.getMethod()) {
-				case Method.GET:
-					logMethod = "GET";
-					break;
-				case Method.POST:
-					logMethod = "POST";
-					break;
-				case Method.PUT:
-					logMethod = "PUT";
-					break;
-				case Method.DELETE:
-					logMethod = "DELETE";
-					break;
+			// If there is no network available notify listener
+			if (!mNetworkStateChecker.isNetworkConnected()) {
+				if (staleWhileRevalidate) {
+					// Cached result or error when loaded
+					loadStale(node, true);
+					continue;
 				}
 
-				NemoLog.debug(NetworkRequestManager.class, "run " + logMethod
-						+ ": " + baseRequest.getUrl());
+				JsonNetworkRequestError error = mResponseParser.createError(
+						baseRequest, 0);
+				RequestOutbox outbox = mOutbox;
+
+				if (outbox != null && baseRequest.getShouldQueueOffline()) {
+					// Sent when network is available again
+					outbox.add(createOutboxEntry(baseRequest));
+					error.setReason(NetworkErrorReason.QUEUED_OFFLINE);
 
-				if (baseRequest.getMethod() == Method.POST) {
-					NemoLog.debug(NetworkRequestManager.class, "parameters: "
-							+ body);
+					// Log
+					NemoLog.debug(NetworkRequestManager.class,
+							"queue offline, url: " + baseRequest.getUrl());
+				} else {
+					error.setReason(NetworkErrorReason.NO_NETWORK);
 				}
+
+				// Release requests depending on this one
+				node.markFinished();
+				notifyError(node, finishRequest(node), error);
+
+				continue;
 			}
-		}
-	}
 
-	private boolean isAllowedToRun(JsonNetworkRequest<?, ?> baseRequest) {
-		int dependsOnId = baseRequest.getDependsOnId();
+			// Fail fast while host is failing
+			if (!acquireCircuit(node)) {
+				JsonNetworkRequestError error = mResponseParser.createError(
+						baseRequest, 0);
+				error.setReason(NetworkErrorReason.CIRCUIT_OPEN);
 
-		if (dependsOnId > -1) {
-			// If running requests contains id which is lower/equal than
-			// dependsOnId and greater/equal to start id of queue, this request
-			// must wait
-			Iterator<Entry<Integer, JsonNetworkRequest<?, JsonNetworkRequestError>>> iter = mRunningRequests
-					.entrySet().iterator();
-			while (iter.hasNext()) {
-				int id = iter.next().getValue().getId();
+				// Release requests depending on this one
+				node.markFinished();
+				notifyError(node, finishRequest(node), error);
 
-				if (id <= dependsOnId && id >= baseRequest.getStartIdOfQueue()) {
-					return false;
-				}
+				continue;
+			}
+
+			// Retries and hedges are paid by first attempts
+			mRetryBudget.onRequest();
+
+			HedgePolicy hedgePolicy = mHedgePolicy;
+			if (hedgePolicy != null) {
+				hedgePolicy.onRequest();
+			}
+
+			startTransport(node);
+
+			if (staleWhileRevalidate) {
+				loadStale(node, false);
 			}
 		}
+	}
+
+	/**
+	 * Gives running request to transport.
+	 * 
+	 * @param node
+	 *            Node of the request.
+	 */
+	@SuppressWarnings("unchecked")
+	private void startTransport(final RequestNode node) {
+		JsonNetworkRequest<?, ?> baseRequest = node.getRequest();
+
+		// Create TransportRequest
+		TransportRequest request = createTransportRequest(node);
+
+		// Log before transport releases the body
+		NemoLog.debug(NetworkRequestManager.class,
+				"run " + request.getMethod() + ": " + request.getUrl());
+
+		if (request.getBody() != null
+				&& baseRequest.getMethod() == Method.POST) {
+			NemoLog.debug(NetworkRequestManager.class, "parameters: "
+					+ request.getBodyLength() + " bytes");
+		}
+
+		// Change request running, retries are already in the map
+		mRunningRequests.put(baseRequest.getId(),
+				(JsonNetworkRequest<?, JsonNetworkRequestError>) baseRequest);
+		long startTime = SystemClock.elapsedRealtime();
+		node.setStarted(startTime, mRunningRequests.size());
+
+		int attempt = node.nextAttempt();
+		node.onCallStarted();
+
+		TransportCall call = mTransport.execute(request,
+				new TransportResponseHandler(node, attempt, false,
+						startTime));
+		node.setTransportCall(call);
+
+		// Canceled before transport call was set
+		if (node.isCanceled()) {
+			call.cancel();
+		} else if (attempt == 1) {
+			scheduleHedge(node, attempt);
+		}
+	}
+
+	/**
+	 * Schedules hedge of idempotent GET request if hedging is enabled and
+	 * there are enough latencies to know which requests are slow.
+	 * 
+	 * @param node
+	 *            Node of the started request.
+	 * @param attempt
+	 *            Number of the attempt to be hedged.
+	 */
+	private void scheduleHedge(final RequestNode node, final int attempt) {
+		HedgePolicy hedgePolicy = mHedgePolicy;
+		JsonNetworkRequest<?, ?> baseRequest = node.getRequest();
+
+		if (hedgePolicy == null || baseRequest.getMethod() != Method.GET
+				|| !baseRequest.isIdempotent()) {
+			return;
+		}
+
+		long delay = hedgePolicy.getHedgeDelayMillis();
+
+		if (delay < 0) {
+			return;
+		}
+
+		mNetworkRequestHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				hedgeRequest(node, attempt);
+			}
+		}, delay);
+	}
+
+	/**
+	 * Sends duplicate of request which has got no response, if the hedge
+	 * budget allows.
+	 * 
+	 * @param node
+	 *            Node of the request.
+	 * @param attempt
+	 *            Number of the hedged attempt.
+	 */
+	private synchronized void hedgeRequest(final RequestNode node,
+			final int attempt) {
+		HedgePolicy hedgePolicy = mHedgePolicy;
+
+		// Skip if answered, retried or canceled meanwhile
+		if (hedgePolicy == null || !node.isRunning()
+				|| node.getAttempt() != attempt
+				|| node.isAttemptClaimed(attempt) || !isCircuitClosed(node)
+				|| !hedgePolicy.tryHedge()) {
+			return;
+		}
+
+		TransportRequest request = createTransportRequest(node);
+
+		// Volley would hold identical cacheable request until first finishes
+		request.setShouldCache(false);
+
+		// Log
+		NemoLog.debug(NetworkRequestManager.class,
+				"hedge " + request.getMethod() + ": " + request.getUrl());
+
+		node.onCallStarted();
+
+		// Latency of the attempt, not of the hedge, is what hedging reduces
+		TransportCall call = mTransport.execute(request,
+				new TransportResponseHandler(node, attempt, true, node
+						.getStartTime()));
+		node.setHedgeCall(call);
+
+		// Answered or canceled before hedge call was set
+		if (node.isCanceled() || node.isAttemptClaimed(attempt)) {
+			call.cancel();
+		}
+	}
+
+	/**
+	 * Asks circuit breaker of the host of the request whether it may be sent.
+	 * 
+	 * @param node
+	 *            Node of the request.
+	 * @return true, if the request may be sent.
+	 */
+	private boolean acquireCircuit(final RequestNode node) {
+		CircuitBreaker circuitBreaker = mCircuitBreaker;
+
+		if (circuitBreaker == null) {
+			return true;
+		}
+
+		String host = UrlHelper.getHost(node.getRequest().getUrl());
+		CircuitState state = circuitBreaker.acquire(host,
+				SystemClock.elapsedRealtime());
+
+		if (state == CircuitState.OPEN) {
+			// Log
+			NemoLog.debug(NetworkRequestManager.class, "circuit open, url: "
+					+ node.getRequest().getUrl());
+
+			return false;
+		}
+
+		node.setCircuitHost(host, state == CircuitState.HALF_OPEN);
 
 		return true;
 	}
 
 	/**
-	 * Json network request to be ran with Volley.
+	 * Reports outcome of an attempt of the request to the circuit breaker.
 	 * 
-	 * @author Niko Rehnbck
+	 * @param node
+	 *            Node of the request.
+	 * @param failed
+	 *            true, if the request got no response or the server failed.
+	 */
+	private void onCircuitOutcome(final RequestNode node, final boolean failed) {
+		CircuitBreaker circuitBreaker = mCircuitBreaker;
+		String host = node.getCircuitHost();
+
+		if (circuitBreaker == null || host == null) {
+			return;
+		}
+
+		boolean probe = node.takeCircuitProbe();
+
+		if (failed) {
+			circuitBreaker.onFailure(host, probe, SystemClock.elapsedRealtime());
+		} else {
+			circuitBreaker.onSuccess(host, probe);
+		}
+	}
+
+	/**
+	 * @return true, if failed request may be retried without going around an
+	 *         open or probing circuit.
+	 */
+	private boolean isCircuitClosed(final RequestNode node) {
+		CircuitBreaker circuitBreaker = mCircuitBreaker;
+		String host = node.getCircuitHost();
+
+		return circuitBreaker == null
+				|| host == null
+				|| circuitBreaker.getState(host, SystemClock.elapsedRealtime()) == CircuitState.CLOSED;
+	}
+
+	/**
+	 * Runs request again after its retry delay, keeping its running slot.
+	 * 
+	 * @param node
+	 *            Node of the failed request.
+	 */
+	private synchronized void retryRequest(final RequestNode node) {
+		// Skip if canceled meanwhile
+		if (!node.isRunning()) {
+			return;
+		}
+
+		startTransport(node);
+	}
+
+	/**
+	 * Loads cached response of request from disk and parses it in background.
 	 * 
-	 * @param <T>
-	 *            Class type of successfully parsed request.
-	 * @param <K>
-	 *            Class type of failed request.
+	 * @param node
+	 *            Node of the request.
+	 * @param offline
+	 *            true, if request cannot be ran and finishes with the cached
+	 *            result.
 	 */
-	private class VolleyRequest<T, K extends JsonNetworkRequestError> extends
-			JsonRequest<Object> {
+	private void loadStale(final RequestNode node, final boolean offline) {
+		mDiskCache.get(node.getRequestKey(),
+				new DiskCache.OnEntryLoadedListener() {
+					@Override
+					public void onEntryLoaded(final DiskCache.Entry entry) {
+						ResponseParser.Result parsed = null;
+
+						if (entry != null && (offline || node.isRunning())) {
+							parsed = mResponseParser.parse(node.getRequest(),
+									new TransportResponse(HttpStatus.SC_OK,
+											null, entry.getBody()));
+						}
 
-		private int mId;
-		private JsonNetworkRequest<T, K> mBaseRequest;
+						final ResponseParser.Result result = parsed;
+
+						mNetworkRequestHandler.post(new Runnable() {
+							@Override
+							public void run() {
+								if (offline) {
+									finishOffline(node, result);
+								} else if (result != null && result.isSuccess()) {
+									notifyStale(node, result.getSuccess(),
+											entry.getContentHash());
+								}
+							}
+						});
+					}
+				});
+	}
 
-		public VolleyRequest(JsonNetworkRequest<T, K> baseRequest, String body,
-				Listener<Object> responseListener,
-				ErrorListener errorResponseListener) {
-			super(baseRequest.getMethod(), baseRequest.getUrl(), body,
-					responseListener, errorResponseListener);
+	/**
+	 * Finishes request which could not be ran with its cached result, or
+	 * with {@link NetworkErrorReason#NO_NETWORK} if it has none.
+	 */
+	private void finishOffline(final RequestNode node,
+			final ResponseParser.Result result) {
+		// Skip if canceled meanwhile
+		if (!node.markFinished()) {
+			return;
+		}
 
-			mBaseRequest = baseRequest;
+		if (result != null && result.isSuccess()) {
+			notifySuccess(node, finishRequest(node), result.getSuccess());
+		} else {
+			JsonNetworkRequestError error = mResponseParser.createError(
+					node.getRequest(), 0);
+			error.setReason(NetworkErrorReason.NO_NETWORK);
 
-			setRetryPolicy(mBaseRequest.getRetryPolicy());
-			setShouldCache(mBaseRequest.getShouldCache());
+			notifyError(node, finishRequest(node), error);
 		}
 
-		public void setId(int id) {
-			mId = id;
+		// Start more requests if in queue
+		runDelayed();
+	}
+
+	/**
+	 * Delivers cached result to request and its subscribers while the request
+	 * is revalidated, unless the request has already finished.
+	 */
+	private void notifyStale(final RequestNode node, final Object result,
+			final long contentHash) {
+		List<RequestNode> subscribers;
+
+		synchronized (this) {
+			if (!node.isRunning()) {
+				return;
+			}
+
+			node.setStaleDelivered(contentHash);
+			subscribers = new ArrayList<RequestNode>(node.getSubscribers());
+
+			for (RequestNode subscriber : subscribers) {
+				subscriber.setStaleDelivered(contentHash);
+			}
 		}
 
-		@Override
-		public Map<String, String> getHeaders() throws AuthFailureError {
-			Map<String, String> headers = super.getHeaders();
+		// Log
+		NemoLog.debug(NetworkRequestManager.class, "stale, url: "
+				+ node.getRequest().getUrl());
+
+		notifySuccess(node, subscribers, result);
+	}
+
+	/**
+	 * Serializes body into a pooled buffer and adds cookies and validators of
+	 * the cached result to headers of the request. Transport returns the
+	 * buffer to the pool when it has sent the body.
+	 * 
+	 * @param node
+	 *            Node of the request to be ran.
+	 * @return Request to be given to {@link Transport}.
+	 */
+	private TransportRequest createTransportRequest(final RequestNode node) {
+		JsonNetworkRequest<?, ?> baseRequest = node.getRequest();
+		PooledByteArrayOutputStream body = new PooledByteArrayOutputStream(
+				mBodyBufferPool);
+
+		try {
+			Writer writer = new OutputStreamWriter(body, BODY_CHARSET);
+			GsonRegistry.getGson().toJson(baseRequest.getJsonBody(), writer);
+			writer.flush();
+		} catch (IOException e) {
+			body.close();
+			throw new IllegalStateException(e);
+		}
+
+		// Add cookies to user defined headers
+		Map<String, String> headers = createHeaders(baseRequest.getUrl(),
+				baseRequest.getHeaders());
+
+		boolean shouldCache = baseRequest.getShouldCache();
 
-			// Add user defined headers to default headers
-			if (mBaseRequest.getHeaders() != null) {
-				mBaseRequest.getHeaders().putAll(headers);
+		if (node.isUnconditional()) {
+			// Full response is needed, user defined validators are dropped
+			removeIgnoreCase(headers, IF_NONE_MATCH_KEY);
+			removeIgnoreCase(headers, IF_MODIFIED_SINCE_KEY);
+		} else if (isResultCacheable(baseRequest)) {
+			// Server answers 304 if the cached result is still valid
+			ResponseCache.Entry cached = mResponseCache.get(node
+					.getRequestKey());
+
+			if (cached != null && cached.hasValidators()) {
+				putIfAbsent(headers, IF_NONE_MATCH_KEY, cached.getETag());
+				putIfAbsent(headers, IF_MODIFIED_SINCE_KEY,
+						cached.getLastModified());
+
+				// Transport cache would replace the validators with its own
+				shouldCache = false;
 			}
+		}
+
+		TransportRequest request = new TransportRequest(
+				getMethodName(baseRequest.getMethod()), baseRequest.getUrl(),
+				headers, body.detachBuffer(), body.size(), BODY_CONTENT_TYPE);
+		request.setBodyPool(mBodyBufferPool);
+
+		setTimeout(request, baseRequest);
 
-			// Put Cookies to headers
-			mNetworkRequestCookieManager.putCookies(headers,
-					getDomainName(getUrl()));
+		request.setShouldCache(shouldCache);
 
-			return mBaseRequest.getHeaders();
+		return request;
+	}
+
+	/**
+	 * Copies timeout and retries of the policy of the request to the
+	 * transport request. Retries are counted by exhausting a policy, so only
+	 * a policy given to this call alone is used for them. Policy shared
+	 * between calls is never consumed, retries then come from
+	 * {@link JsonNetworkRequest#getMaxRetries()}.
+	 * 
+	 * @param request
+	 *            Request to be given to {@link Transport}.
+	 * @param baseRequest
+	 *            Request giving {@link JsonNetworkRequest#getRetryPolicy()}.
+	 */
+	private void setTimeout(final TransportRequest request,
+			final JsonNetworkRequest<?, ?> baseRequest) {
+		RetryPolicy retryPolicy = baseRequest.getRetryPolicy();
+		int timeoutMillis = retryPolicy.getCurrentTimeout();
+
+		if (mRetryStrategy != null) {
+			// Retried by the manager, transport only uses the timeout
+			request.setTimeout(timeoutMillis, 0, 1f);
+			return;
 		}
 
-		@SuppressWarnings("unchecked")
-		@Override
-		protected Response<Object> parseNetworkResponse(NetworkResponse response) {
-			// Check for null data
-			if (response == null || response.data == null) {
-				// Log
-				NemoLog.error(NetworkRequestManager.class,
-						"empty response, url: " + mBaseRequest.getUrl());
-
-				try {
-					return Response
-							.error(new NemoVolleyError(response, mBaseRequest
-									.getClassOfFailedObject().newInstance()));
-				} catch (InstantiationException e) {
-					e.printStackTrace();
-				} catch (IllegalAccessException e) {
-					e.printStackTrace();
+		// Same instance is returned again, it must not be consumed
+		if (baseRequest.getRetryPolicy() == retryPolicy) {
+			request.setTimeout(timeoutMillis, baseRequest.getMaxRetries(),
+					baseRequest.getBackoffMultiplier());
+			return;
+		}
+
+		int maxRetries = 0;
+		int retriedTimeoutMillis = timeoutMillis;
+
+		try {
+			while (maxRetries < MAX_TRANSPORT_RETRIES) {
+				retryPolicy.retry(new TimeoutError());
+				maxRetries++;
+
+				if (maxRetries == 1) {
+					retriedTimeoutMillis = retryPolicy.getCurrentTimeout();
 				}
 			}
+		} catch (VolleyError e) {
+			// Policy exhausted
+		}
 
-			// Parse Cookies
-			mNetworkRequestCookieManager.storeCookies(response,
-					getDomainName(getUrl()), System.currentTimeMillis());
+		float backoffMultiplier = timeoutMillis > 0 ? (float) (retriedTimeoutMillis - timeoutMillis)
+				/ timeoutMillis
+				: 0f;
+		request.setTimeout(timeoutMillis, maxRetries, backoffMultiplier);
+	}
 
-			String json = new String(response.data);
-			Gson gson = new GsonBuilder().registerTypeAdapter(
-					mBaseRequest.getClassOfSuccessfulObject(),
-					new JsonRequiredDeserializer<T>()).create();
+	/**
+	 * @param url
+	 *            Url of the request.
+	 * @param requestHeaders
+	 *            User defined headers or <code>null</code>.
+	 * @return User defined headers with cookies of the url.
+	 */
+	private Map<String, String> createHeaders(final String url,
+			final Map<String, String> requestHeaders) {
+		Map<String, String> headers = new HashMap<String, String>();
+
+		if (requestHeaders != null) {
+			headers.putAll(requestHeaders);
+		}
 
-			Object success = gson.fromJson(json,
-					mBaseRequest.getClassOfSuccessfulObject());
+		String cookieHeader = mCookieJar.getCookieHeader(url);
+
+		if (cookieHeader != null) {
+			headers.put(COOKIE_KEY, cookieHeader);
 
 			// Log
-			NemoLog.debug(NetworkRequestManager.class, "success, url: "
-					+ mBaseRequest.getUrl());
-			NemoLog.debug(NetworkRequestManager.class, "response: " + json);
-
-			// Check if result needs more validation
-			if (mBaseRequest instanceof ValidatingJsonNetworkRequest<?, ?>) {
-				Object error = gson.fromJson(json,
-						mBaseRequest.getClassOfFailedObject());
-
-				if (((ValidatingJsonNetworkRequest<T, K>) mBaseRequest)
-						.isValid((K) error)) {
-					return Response.success(success,
-							HttpHeaderParser.parseCacheHeaders(response));
-				} else {
-					((JsonNetworkRequestError) error)
-							.setReason(NetworkErrorReason.VALIDATION_ERROR);
+			NemoLog.debug(NetworkRequestManager.class, "put cookies: "
+					+ cookieHeader);
+		}
+
+		return headers;
+	}
+
+	/**
+	 * Serializes request for the outbox. Cookies are added when the request
+	 * is sent.
+	 */
+	private static RequestOutbox.Entry createOutboxEntry(
+			final JsonNetworkRequest<?, ?> baseRequest) {
+		byte[] body;
+
+		try {
+			body = GsonRegistry.getGson().toJson(baseRequest.getJsonBody())
+					.getBytes(BODY_CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
 
-					return Response.error(new NemoVolleyError(response,
-							(K) error));
+		return new RequestOutbox.Entry(getMethodName(baseRequest.getMethod()),
+				baseRequest.getUrl(), baseRequest.getHeaders(), body,
+				BODY_CONTENT_TYPE);
+	}
+
+	/**
+	 * Starts sending next batch of the outbox unless one is being sent or
+	 * there is no network.
+	 */
+	private final Runnable mOutboxReplayer = new Runnable() {
+		@Override
+		public void run() {
+			RequestOutbox outbox = mOutbox;
+
+			if (outbox == null || !mNetworkStateChecker.isNetworkConnected()) {
+				return;
+			}
+
+			List<RequestOutbox.Entry> batch;
+
+			synchronized (NetworkRequestManager.this) {
+				if (mOutboxReplaying) {
+					return;
 				}
+
+				batch = outbox.peek(OUTBOX_REPLAY_BATCH_SIZE);
+
+				if (batch.isEmpty()) {
+					return;
+				}
+
+				mOutboxReplaying = true;
 			}
 
-			return Response.success(success,
-					HttpHeaderParser.parseCacheHeaders(response));
+			// Log
+			NemoLog.debug(NetworkRequestManager.class, "replay outbox, "
+					+ batch.size() + " of " + outbox.size());
+
+			replayOutboxEntry(outbox, batch, 0);
 		}
+	};
 
+	/**
+	 * Holds dispatch while network state is changing, so requests are not
+	 * started on a connection which is going away, nor failed on one which
+	 * is coming back.
+	 */
+	private final NetworkStateChecker.OnNetworkStateListener mNetworkStateListener = new NetworkStateChecker.OnNetworkStateListener() {
 		@Override
-		protected VolleyError parseNetworkError(VolleyError volleyError) {
-			// Log
-			NemoLog.error(NetworkRequestManager.class, "error, url: "
-					+ mBaseRequest.getUrl());
-			if (volleyError.getLocalizedMessage() != null) {
-				NemoLog.error(NetworkRequestManager.class, "message: "
-						+ volleyError.getLocalizedMessage());
+		public void onNetworkStateUnsettled() {
+			mDispatchPaused = true;
+		}
+
+		@Override
+		public void onNetworkStateSettled(NetworkState state) {
+			mDispatchPaused = false;
+			runDelayed();
+
+			if (state == NetworkState.CONNECTED) {
+				mNetworkRequestHandler.post(mOutboxReplayer);
+			}
+		}
+	};
+
+	/**
+	 * Sends requests of the batch one at a time, so the server receives them
+	 * in the order they were made. Request which gets no response or finds the
+	 * server unavailable stays in the outbox and ends the replay until the
+	 * next connection. Next batch is started after a pause.
+	 * 
+	 * @param outbox
+	 *            Outbox of the batch.
+	 * @param batch
+	 *            Oldest requests of the outbox.
+	 * @param index
+	 *            Index of the request to be sent.
+	 */
+	private void replayOutboxEntry(final RequestOutbox outbox,
+			final List<RequestOutbox.Entry> batch, final int index) {
+		if (index == batch.size() || outbox != mOutbox) {
+			finishOutboxReplay();
+
+			// Continue unless disabled meanwhile
+			if (outbox == mOutbox) {
+				mNetworkRequestHandler.postDelayed(mOutboxReplayer,
+						OUTBOX_REPLAY_INTERVAL_MS);
 			}
 
-			NetworkResponse response = volleyError.networkResponse;
+			return;
+		}
 
-			// Check for null data
-			if (response == null || response.data == null) {
+		final RequestOutbox.Entry entry = batch.get(index);
+		TransportRequest request = new TransportRequest(entry.getMethod(),
+				entry.getUrl(), createHeaders(entry.getUrl(),
+						entry.getHeaders()), entry.getBody(),
+				entry.getContentType());
+		request.setShouldCache(false);
+
+		// Request timing out may have reached the server, entry stays in the
+		// outbox and is replayed on the next round instead
+		request.setTimeout(TransportRequest.DEFAULT_TIMEOUT_MILLIS, 0, 1f);
+
+		// Log
+		NemoLog.debug(NetworkRequestManager.class,
+				"replay " + entry.getMethod() + ": " + entry.getUrl());
+
+		mTransport.execute(request, new TransportCallback() {
+			@Override
+			public void onResponse(final TransportResponse response) {
+				mCookieJar.storeCookies(entry.getUrl(),
+						response.getHeaderValues(SET_COOKIE_KEY));
+
+				final int statusCode = response.getStatusCode();
+
+				mNetworkRequestHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (statusCode == HTTP_TOO_MANY_REQUESTS
+								|| statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+							// Try again on next connection
+							NemoLog.error(NetworkRequestManager.class,
+									"replay failed, status: " + statusCode);
+							finishOutboxReplay();
+						} else {
+							// Server has handled the request
+							outbox.remove(entry);
+							replayOutboxEntry(outbox, batch, index + 1);
+						}
+					}
+				});
+			}
+
+			@Override
+			public void onFailure(final Exception error) {
 				// Log
 				NemoLog.error(NetworkRequestManager.class,
-						"empty response, url: " + mBaseRequest.getUrl());
-			}
+						"replay failed, url: " + entry.getUrl());
 
-			try {
-				return new NemoVolleyError(response, mBaseRequest
-						.getClassOfFailedObject().newInstance());
-			} catch (InstantiationException e) {
-				e.printStackTrace();
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
+				mNetworkRequestHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						finishOutboxReplay();
+					}
+				});
 			}
+		});
+	}
 
-			return new NemoVolleyError(response, null);
-		}
+	private synchronized void finishOutboxReplay() {
+		mOutboxReplaying = false;
+	}
 
-		public void run(RequestQueue networkRequestQueue) {
-			setTag(mId);
+	/**
+	 * @return true, if parsed result of the request is kept in the response
+	 *         cache, for serving it while fresh or reusing it on 304.
+	 */
+	private static boolean isResultCacheable(
+			final JsonNetworkRequest<?, ?> request) {
+		return request.getMethod() == Method.GET
+				&& (request.getCacheTtl() > 0 || request.getCachePolicy() == CachePolicy.STALE_WHILE_REVALIDATE);
+	}
 
-			networkRequestQueue.add(this);
+	private static void putIfAbsent(final Map<String, String> headers,
+			final String key, final String value) {
+		if (value != null && !headers.containsKey(key)) {
+			headers.put(key, value);
 		}
+	}
 
-		private String getDomainName(String url) {
-			try {
-				URI uri = new URI(url);
-				String domain = uri.getHost();
+	private static void removeIgnoreCase(final Map<String, String> headers,
+			final String key) {
+		Iterator<String> it = headers.keySet().iterator();
 
-				return domain.startsWith("www.") ? domain.substring(4) : domain;
-			} catch (Exception e) {
-				e.printStackTrace();
+		while (it.hasNext()) {
+			if (key.equalsIgnoreCase(it.next())) {
+				it.remove();
 			}
+		}
+	}
+
+	private static long getExpiryTime(final long now, final long ttl) {
+		return now + Math.min(Math.max(ttl, 0), Long.MAX_VALUE - now);
+	}
+
+	private static boolean isStaleWhileRevalidate(
+			final JsonNetworkRequest<?, ?> request) {
+		return request.getMethod() == Method.GET
+				&& request.getCachePolicy() == CachePolicy.STALE_WHILE_REVALIDATE;
+	}
 
-			return "";
+	private static String getMethodName(final int method) {
+		switch (method) {
+		case Method.GET:
+			return TransportRequest.METHOD_GET;
+		case Method.PUT:
+			return TransportRequest.METHOD_PUT;
+		case Method.DELETE:
+			return TransportRequest.METHOD_DELETE;
+		default:
+			// Deprecated GET or POST sends the body, so it is a POST
+			return TransportRequest.METHOD_POST;
 		}
 	}
 
 	/**
-	 * Simple error wrapper class.
-	 * 
-	 * @author Niko Rehnbck
+	 * @param statusCode
+	 *            Status code of the response, 0 if there was none.
+	 * @return true, if there was no response or the server was overloaded.
+	 */
+	private static boolean isServerFailure(final int statusCode) {
+		return statusCode == 0 || statusCode == HTTP_TOO_MANY_REQUESTS
+				|| statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+	}
+
+	/**
+	 * Reports round trip time of finished request to concurrency limiter.
 	 * 
+	 * @param node
+	 *            Node of the finished request.
+	 * @param dropped
+	 *            true, if request got no response or server was overloaded.
 	 */
-	@SuppressWarnings("serial")
-	private class NemoVolleyError extends VolleyError {
+	private void onRequestSample(final RequestNode node, final boolean dropped) {
+		mConcurrencyLimiter.onSample(SystemClock.elapsedRealtime()
+				- node.getStartTime(), node.getRunningRequestCountAtStart(),
+				dropped);
+	}
 
-		private Object mErrorObject;
+	/**
+	 * Notifies listeners of request and its coalesced subscribers of success.
+	 * 
+	 * @param node
+	 *            Node of the finished request.
+	 * @param subscribers
+	 *            Nodes of coalesced requests.
+	 * @param result
+	 *            Parsed result of the request.
+	 */
+	private void notifySuccess(final RequestNode node,
+			final List<RequestNode> subscribers, final Object result) {
+		if (!node.isOwnerCanceled()) {
+			notifySuccess(node.getRequest(), result);
+		}
 
-		public NemoVolleyError(NetworkResponse response, Object error) {
-			super(response);
+		for (RequestNode subscriber : subscribers) {
+			notifySuccess(subscriber.getRequest(), result);
+		}
+	}
 
-			((JsonNetworkRequestError) error)
-					.setHttpStatusCode(response.statusCode);
-			mErrorObject = error;
+	/**
+	 * Notifies listeners of request and its coalesced subscribers of error.
+	 * 
+	 * @param node
+	 *            Node of the failed request.
+	 * @param subscribers
+	 *            Nodes of coalesced requests.
+	 * @param error
+	 *            Error of the request.
+	 */
+	private void notifyError(final RequestNode node,
+			final List<RequestNode> subscribers,
+			final JsonNetworkRequestError error) {
+		if (!node.isOwnerCanceled()) {
+			notifyError(node.getRequest(), error);
 		}
 
-		public Object getErrorObject() {
-			return mErrorObject;
+		for (RequestNode subscriber : subscribers) {
+			notifyError(subscriber.getRequest(), error);
 		}
 	}
 
 	/**
-	 * Cookie manager to read and set Cookies from server.
+	 * Notifies listener of successful request on the main thread.
 	 * 
-	 * @author Niko Rehnbck
+	 * @param request
+	 *            Finished request.
+	 * @param result
+	 *            Parsed result of the request.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> void notifySuccess(final JsonNetworkRequest<T, ?> request,
+			final Object result) {
+		final NetworkRequestListener<T, ?> listener = request.getListener();
+
+		if (listener != null) {
+			runOnMainThread(new Runnable() {
+				@Override
+				public void run() {
+					listener.onNetworkRequestSuccess((T) result);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Notifies listener of failed request on the main thread.
 	 * 
+	 * @param request
+	 *            Failed request.
+	 * @param error
+	 *            Error of the request.
 	 */
-	private class NetworkRequestCookieManager {
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void notifyError(final JsonNetworkRequest<?, ?> request,
+			final JsonNetworkRequestError error) {
+		final NetworkRequestListener listener = request.getListener();
+
+		if (listener != null) {
+			runOnMainThread(new Runnable() {
+				@Override
+				public void run() {
+					listener.onNetworkRequestError(error);
+				}
+			});
+		}
+	}
 
-		private static final String SET_COOKIE_KEY = "Set-Cookie";
-		private static final String COOKIE_KEY = "Cookie";
+	/**
+	 * Notifies subscribers which attached after the cached result was
+	 * delivered.
+	 * 
+	 * @param subscribers
+	 *            Nodes of coalesced requests.
+	 * @param result
+	 *            Result of the revalidated request.
+	 */
+	private void notifyNotStaleDelivered(final List<RequestNode> subscribers,
+			final ResponseParser.Result result) {
+		for (RequestNode subscriber : subscribers) {
+			if (subscriber.isStaleDelivered()) {
+				continue;
+			}
 
-		private Map<String, NetworkRequestCookie> mCookies = new HashMap<String, NetworkRequestCookie>();
+			if (result.isSuccess()) {
+				notifySuccess(subscriber.getRequest(), result.getSuccess());
+			} else {
+				notifyError(subscriber.getRequest(), result.getError());
+			}
+		}
+	}
 
-		public void clearAllCookies() {
-			mCookies.clear();
+	private void runOnMainThread(final Runnable runnable) {
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			runnable.run();
+		} else {
+			mMainHandler.post(runnable);
 		}
+	}
 
-		public void storeCookies(NetworkResponse response, final String domain,
-				long requestTimestamp) {
-			Map<String, String> headerFields = response.headers;
+	/**
+	 * Handles the result of a request ran by {@link Transport}. Response is
+	 * parsed on the transport thread and the request finished on the thread
+	 * running the scheduling.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	private class TransportResponseHandler implements TransportCallback {
 
-			if (headerFields != null) {
-				String cookie = headerFields.get(SET_COOKIE_KEY);
+		private final RequestNode mNode;
+		private final int mAttempt;
+		private final boolean mHedge;
+		// Start of the attempt, so retry delays are not in the latency
+		private final long mStartTime;
 
-				if (cookie != null && cookie.length() > 0) {
-					storeCookie(cookie, requestTimestamp, domain);
-				}
-			}
+		/**
+		 * @param node
+		 *            Node of the request.
+		 * @param attempt
+		 *            Number of the attempt of the call.
+		 * @param hedge
+		 *            true, if the call is a hedge.
+		 * @param startTime
+		 *            Start time of the primary call of the attempt.
+		 */
+		public TransportResponseHandler(final RequestNode node,
+				final int attempt, final boolean hedge, final long startTime) {
+			mNode = node;
+			mAttempt = attempt;
+			mHedge = hedge;
+			mStartTime = startTime;
 		}
 
-		private void storeCookie(String cookieString, long requestTimestamp,
-				String domain) {
+		@Override
+		public void onResponse(TransportResponse response) {
+			// Skip parsing if canceled or answered meanwhile
+			if (mNode.isCanceled() || !claimAttempt()) {
+				return;
+			}
 
-			String[] cookieValues = cookieString.split("-");
+			HedgePolicy hedgePolicy = mHedgePolicy;
+			if (hedgePolicy != null
+					&& !isServerFailure(response.getStatusCode())) {
+				hedgePolicy.onLatency(SystemClock.elapsedRealtime()
+						- mStartTime);
+			}
 
-			for (int i = 0; i < cookieValues.length; i++) {
-				String c = cookieValues[i];
+			JsonNetworkRequest<?, ?> baseRequest = mNode.getRequest();
 
-				NetworkRequestCookie cookie = new NetworkRequestCookie();
-				cookie.setName(c.substring(0, c.indexOf("=")));
-				cookie.setValue(c.substring(c.indexOf("=") + 1,
-						c.indexOf("; ") != -1 ? c.indexOf("; ") : c.length()));
-				cookie.setTimeStamp(requestTimestamp);
-				cookie.setDomain(domain);
+			// Parse Cookies
+			mCookieJar.storeCookies(baseRequest.getUrl(),
+					response.getHeaderValues(SET_COOKIE_KEY));
 
-				if (!mCookies.containsKey(cookie.getName())
-						|| mCookies.get(cookie.getName()).getTimeStamp() < requestTimestamp) {
-					mCookies.put(cookie.getName(), cookie);
+			onCircuitOutcome(mNode, isServerFailure(response.getStatusCode()));
 
-					// Log
-					NemoLog.debug(NetworkRequestCookieManager.class,
-							"store cookie, domain: " + domain);
-					NemoLog.debug(NetworkRequestCookieManager.class, c);
-				}
+			if (retry(RetryStrategy.getFailure(response.getStatusCode()))) {
+				return;
 			}
-		}
 
-		public void putCookies(Map<String, String> headers, final String domain) {
-			StringBuffer cookieBuf = new StringBuffer();
-			Iterator<NetworkRequestCookie> it = mCookies.values().iterator();
+			boolean cacheable = isResultCacheable(baseRequest);
 
-			while (it.hasNext()) {
-				NetworkRequestCookie cookie = it.next();
+			if (response.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+				ResponseCache.Entry cached = cacheable ? mResponseCache
+						.get(mNode.getRequestKey()) : null;
 
-				if (!cookie.getName().equals("")
-						&& !cookie.getValue().equals("")
-						&& cookie.getDomain().equalsIgnoreCase(domain)) {
-					cookieBuf
-							.append(cookie.getName() + "=" + cookie.getValue());
+				if (cached != null) {
+					reuseCachedResult(baseRequest, response, cached);
+					return;
 				}
-				if (it.hasNext()) {
-					cookieBuf.append("; ");
+
+				if (response.getBody() != null
+						&& response.getBody().length > 0) {
+					// Transport answered with the body of its own cache
+					response = new TransportResponse(HttpStatus.SC_OK,
+							response.getHeaders(), response.getBody());
+				} else if (!mNode.isUnconditional()) {
+					// Cached result was evicted or validators were set by
+					// the user, 304 has no body to parse
+					reissueUnconditional();
+					return;
 				}
 			}
 
-			String cookieString = cookieBuf.toString();
+			ResponseParser.Result result = mResponseParser.parse(baseRequest,
+					response);
 
-			// Only put if cookies found
-			if (cookieString.length() > 0) {
-				headers.put(COOKIE_KEY, cookieString);
+			if (result.isSuccess() && cacheable) {
+				mResponseCache.put(mNode.getRequestKey(), result.getSuccess(),
+						response.getBody().length,
+						getExpiryTime(System.currentTimeMillis(),
+								baseRequest.getCacheTtl()),
+						response.getHeader(ETAG_KEY),
+						response.getHeader(LAST_MODIFIED_KEY));
+			}
 
-				// Log
-				NemoLog.debug(NetworkRequestCookieManager.class,
-						"put cookies, domain: " + domain);
-				NemoLog.debug(NetworkRequestCookieManager.class, cookieString);
+			long contentHash = 0;
+
+			if (result.isSuccess() && isStaleWhileRevalidate(baseRequest)) {
+				contentHash = DiskCache.hash(response.getBody());
+
+				// Unchanged response is already on disk
+				if (!mNode.isStaleDelivered()
+						|| mNode.getStaleContentHash() != contentHash) {
+					mDiskCache.put(mNode.getRequestKey(), response.getBody(),
+							contentHash);
+				}
 			}
+
+			finish(result, contentHash);
 		}
 
 		/**
-		 * Simple cookie class.
-		 * 
-		 * @author Niko Rehnbck
-		 * 
+		 * Sends the request again without validators, so the server answers
+		 * with the full response. Not counted as a retry.
 		 */
-		private class NetworkRequestCookie {
-			private String mName = "";
-			private String mValue = "";
-			private String mDomain = "";
-			private long mTimeStamp = 0;
+		private void reissueUnconditional() {
+			// Log
+			NemoLog.debug(NetworkRequestManager.class,
+					"not modified but nothing cached, url: "
+							+ mNode.getRequest().getUrl());
 
-			public String getName() {
-				return mName;
-			}
+			mNode.setUnconditional();
 
-			public void setName(String name) {
-				mName = name;
-			}
+			mNetworkRequestHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					onRequestSample(mNode, false);
+
+					retryRequest(mNode);
+				}
+			});
+		}
+
+		/**
+		 * Finishes request with the cached result the server told has not
+		 * changed, without parsing anything. Revalidated result counts as
+		 * unchanged for listeners which got it while revalidating.
+		 */
+		private void reuseCachedResult(
+				final JsonNetworkRequest<?, ?> baseRequest,
+				final TransportResponse response,
+				final ResponseCache.Entry cached) {
+			// Log
+			NemoLog.debug(NetworkRequestManager.class, "not modified, url: "
+					+ baseRequest.getUrl());
+
+			// Fresh again, server may send new validators
+			String eTag = response.getHeader(ETAG_KEY);
+			String lastModified = response.getHeader(LAST_MODIFIED_KEY);
+
+			mResponseCache.put(mNode.getRequestKey(), cached.getValue(),
+					cached.getSize(), getExpiryTime(System.currentTimeMillis(),
+							baseRequest.getCacheTtl()),
+					eTag != null ? eTag : cached.getETag(),
+					lastModified != null ? lastModified : cached
+							.getLastModified());
+
+			finish(ResponseParser.Result.success(cached.getValue()),
+					mNode.getStaleContentHash());
+		}
 
-			public String getValue() {
-				return mValue;
+		@Override
+		public void onFailure(Exception error) {
+			// Log
+			NemoLog.error(NetworkRequestManager.class, "error, url: "
+					+ mNode.getRequest().getUrl());
+			if (error.getLocalizedMessage() != null) {
+				NemoLog.error(NetworkRequestManager.class, "message: "
+						+ error.getLocalizedMessage());
 			}
 
-			public void setValue(String value) {
-				mValue = value;
+			// Other call of the attempt may still answer
+			if (mNode.onCallFailed() || !claimAttempt()) {
+				return;
 			}
 
-			public String getDomain() {
-				return mDomain;
+			onCircuitOutcome(mNode, true);
+
+			if (retry(RetryStrategy.getFailure(error))) {
+				return;
 			}
 
-			public void setDomain(String domain) {
-				mDomain = domain;
+			finish(ResponseParser.Result.error(mResponseParser.createError(
+					mNode.getRequest(), 0)), 0);
+		}
+
+		/**
+		 * Claims the attempt for this call and cancels the other call of it,
+		 * the hedge or the hedged one.
+		 * 
+		 * @return true, if this call answered the attempt first.
+		 */
+		private boolean claimAttempt() {
+			if (!mNode.claimAttempt(mAttempt)) {
+				return false;
 			}
 
-			public long getTimeStamp() {
-				return mTimeStamp;
+			TransportCall other = mHedge ? mNode.getTransportCall() : mNode
+					.getHedgeCall();
+
+			if (other != null) {
+				other.cancel();
 			}
 
-			public void setTimeStamp(long timeStamp) {
-				mTimeStamp = timeStamp;
+			return true;
+		}
+
+		/**
+		 * Schedules retry of the request if the retry strategy and budget
+		 * allow it.
+		 * 
+		 * @param failure
+		 *            Failure of the request, or <code>null</code> if it did
+		 *            not fail.
+		 * @return true, if the request is retried.
+		 */
+		private boolean retry(final RetryableFailure failure) {
+			RetryStrategy retryStrategy = mRetryStrategy;
+
+			if (failure == null || retryStrategy == null
+					|| mNode.isCanceled()
+					|| !mNode.getRequest().isIdempotent()
+					|| !retryStrategy.shouldRetry(failure, mNode.getRetryCount())
+					|| !isCircuitClosed(mNode) || !mRetryBudget.tryRetry()) {
+				return false;
 			}
+
+			long delay = retryStrategy.getDelayMillis(mNode.getRetryCount());
+			mNode.onRetry();
+
+			// Log
+			NemoLog.debug(NetworkRequestManager.class, "retry " + failure
+					+ " in " + delay + " ms, url: "
+					+ mNode.getRequest().getUrl());
+
+			mNetworkRequestHandler.postDelayed(new Runnable() {
+				@Override
+				public void run() {
+					// Failed attempt counts as dropped
+					onRequestSample(mNode, true);
+
+					retryRequest(mNode);
+				}
+			}, delay);
+
+			return true;
+		}
+
+		/**
+		 * @param contentHash
+		 *            Hash of the response body of revalidated request.
+		 */
+		private void finish(final ResponseParser.Result result,
+				final long contentHash) {
+			mNetworkRequestHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					// Skip if canceled meanwhile
+					if (!mNode.markFinished()) {
+						return;
+					}
+
+					if (result.isSuccess()) {
+						onRequestSample(mNode, false);
+					} else {
+						onRequestSample(mNode, isServerFailure(result
+								.getError().getHttpStatusCode()));
+					}
+
+					// Remove from running requests and notify listeners
+					List<RequestNode> subscribers = finishRequest(mNode);
+
+					if (mNode.isStaleDelivered()
+							&& (!result.isSuccess() || mNode
+									.getStaleContentHash() == contentHash)) {
+						// Requests which got the cached result hear only of
+						// changed content
+						notifyNotStaleDelivered(subscribers, result);
+					} else if (result.isSuccess()) {
+						notifySuccess(mNode, subscribers, result.getSuccess());
+					} else {
+						notifyError(mNode, subscribers, result.getError());
+					}
+
+					// Start more requests if in queue
+					runDelayed();
+				}
+			});
 		}
 	}
 }
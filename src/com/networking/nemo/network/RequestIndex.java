@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.network;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe index of unfinished requests. Maps request ids and request tags
+ * to {@link RequestNode} of both queued and running requests so requests can
+ * be found for cancellation without scanning the queues.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+class RequestIndex {
+
+	private final Map<Integer, RequestNode> mNodes = new ConcurrentHashMap<Integer, RequestNode>();
+	private final ConcurrentHashMap<Object, Set<Integer>> mTags = new ConcurrentHashMap<Object, Set<Integer>>();
+
+	public void add(final RequestNode node) {
+		mNodes.put(node.getId(), node);
+
+		Object tag = node.getRequest().getTag();
+
+		if (tag != null) {
+			addTag(tag, node.getId());
+		}
+	}
+
+	public RequestNode get(final int id) {
+		return mNodes.get(id);
+	}
+
+	/**
+	 * Removes node from index.
+	 * 
+	 * @param id
+	 *            Id of the request.
+	 * @return Removed node or <code>null</code> if not found.
+	 */
+	public RequestNode remove(final int id) {
+		RequestNode node = mNodes.remove(id);
+
+		if (node != null) {
+			Object tag = node.getRequest().getTag();
+
+			if (tag != null) {
+				removeTag(tag, id);
+			}
+		}
+
+		return node;
+	}
+
+	/**
+	 * @param tag
+	 *            Tag of the requests.
+	 * @return Nodes of unfinished requests with the tag.
+	 */
+	public List<RequestNode> getByTag(final Object tag) {
+		Set<Integer> ids = mTags.get(tag);
+
+		if (ids == null) {
+			return Collections.emptyList();
+		}
+
+		List<RequestNode> nodes = new ArrayList<RequestNode>(ids.size());
+
+		for (Integer id : ids) {
+			RequestNode node = mNodes.get(id);
+
+			if (node != null) {
+				nodes.add(node);
+			}
+		}
+
+		return nodes;
+	}
+
+	public Collection<RequestNode> getAll() {
+		return new ArrayList<RequestNode>(mNodes.values());
+	}
+
+	private void addTag(final Object tag, final int id) {
+		while (true) {
+			Set<Integer> ids = mTags.get(tag);
+
+			if (ids == null) {
+				Set<Integer> newIds = Collections
+						.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+				ids = mTags.putIfAbsent(tag, newIds);
+
+				if (ids == null) {
+					ids = newIds;
+				}
+			}
+
+			ids.add(id);
+
+			// Retry if the set was removed as empty meanwhile
+			if (mTags.get(tag) == ids) {
+				return;
+			}
+
+			ids.remove(id);
+		}
+	}
+
+	private void removeTag(final Object tag, final int id) {
+		Set<Integer> ids = mTags.get(tag);
+
+		if (ids != null) {
+			ids.remove(id);
+
+			if (ids.isEmpty()) {
+				mTags.remove(tag, ids);
+			}
+		}
+	}
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.networking.nemo.enums.RequestPriority;
+import com.networking.nemo.request.JsonNetworkRequest;
+import com.networking.nemo.transport.TransportCall;
+
+/**
+ * Node of request dependency graph used by {@link RequestScheduler}. Node
+ * keeps count of unfinished requests it depends on and the nodes depending on
+ * it, so finishing a request releases its dependents in O(out-degree).
+ * 
+ * State of the node is changed atomically so a request finishing and getting
+ * canceled at the same time is handled only once.
+ * 
+ * Identical requests can be coalesced, in which case the first node runs the
+ * request and the others are attached to it as subscribers.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+class RequestNode {
+
+	private static final int[] NO_DEPENDENCIES = new int[0];
+
+	private static final int STATE_QUEUED = 0;
+	private static final int STATE_RUNNING = 1;
+	private static final int STATE_FINISHED = 2;
+	private static final int STATE_CANCELED = 3;
+
+	private final JsonNetworkRequest<?, ?> mRequest;
+	private final RequestPriority mPriority;
+	private final int[] mDependsOnIds;
+	private List<RequestNode> mDependents = Collections.emptyList();
+	private int mUnfinishedDependencyCount = 0;
+	private final AtomicInteger mState = new AtomicInteger(STATE_QUEUED);
+	private volatile TransportCall mTransportCall;
+
+	// Attempts share a number with their hedge, first response claims it
+	private int mAttempt = 0;
+	private final AtomicInteger mClaimedAttempt = new AtomicInteger(0);
+	private volatile TransportCall mHedgeCall;
+	private final AtomicInteger mRunningCallCount = new AtomicInteger(0);
+
+	private long mStartTime;
+	private int mRunningRequestCountAtStart;
+	private volatile int mRetryCount = 0;
+	// Sent without conditional headers after a 304 with nothing cached
+	private volatile boolean mUnconditional = false;
+
+	// Host whose circuit breaker allowed the request, null if none
+	private volatile String mCircuitHost;
+	private volatile boolean mCircuitProbe = false;
+
+	private String mRequestKey;
+
+	// Coalescing of identical requests, guarded by NetworkRequestManager
+	private final boolean mCoalescable;
+	private RequestNode mPrimary;
+	private List<RequestNode> mSubscribers = Collections.emptyList();
+	private boolean mOwnerCanceled = false;
+
+	// Cached result delivered while revalidating, guarded by
+	// NetworkRequestManager
+	private boolean mStaleDelivered = false;
+	private long mStaleContentHash;
+
+	// Guarded by the caller of RequestScheduler
+	private String mHostKey;
+	private boolean mDispatched = false;
+
+	public RequestNode(final JsonNetworkRequest<?, ?> request,
+			final boolean coalescable) {
+		this(request, NO_DEPENDENCIES, coalescable);
+	}
+
+	public RequestNode(final JsonNetworkRequest<?, ?> request,
+			final int[] dependsOnIds) {
+		this(request, dependsOnIds, false);
+	}
+
+	private RequestNode(final JsonNetworkRequest<?, ?> request,
+			final int[] dependsOnIds, final boolean coalescable) {
+		mRequest = request;
+		mCoalescable = coalescable;
+		mPriority = request.getPriority() != null ? request.getPriority()
+				: RequestPriority.NORMAL;
+		mDependsOnIds = dependsOnIds != null ? dependsOnIds : NO_DEPENDENCIES;
+	}
+
+	public JsonNetworkRequest<?, ?> getRequest() {
+		return mRequest;
+	}
+
+	public int getId() {
+		return mRequest.getId();
+	}
+
+	public RequestPriority getPriority() {
+		return mPriority;
+	}
+
+	public int[] getDependsOnIds() {
+		return mDependsOnIds;
+	}
+
+	public List<RequestNode> getDependents() {
+		return mDependents;
+	}
+
+	public void addDependent(final RequestNode dependent) {
+		if (mDependents.isEmpty()) {
+			mDependents = new ArrayList<RequestNode>(2);
+		}
+
+		mDependents.add(dependent);
+		dependent.mUnfinishedDependencyCount++;
+	}
+
+	/**
+	 * Called when one of the requests this node depends on has finished.
+	 * 
+	 * @return true, if there are no more unfinished dependencies.
+	 */
+	public boolean onDependencyFinished() {
+		return --mUnfinishedDependencyCount == 0;
+	}
+
+	public boolean isBlocked() {
+		return mUnfinishedDependencyCount > 0;
+	}
+
+	/**
+	 * @return true, if node was queued and is now running.
+	 */
+	public boolean markRunning() {
+		return mState.compareAndSet(STATE_QUEUED, STATE_RUNNING);
+	}
+
+	/**
+	 * @return true, if node was running and is now finished.
+	 */
+	public boolean markFinished() {
+		return mState.compareAndSet(STATE_RUNNING, STATE_FINISHED);
+	}
+
+	/**
+	 * @return true, if node was queued or running and is now canceled.
+	 */
+	public boolean markCanceled() {
+		return mState.compareAndSet(STATE_QUEUED, STATE_CANCELED)
+				|| mState.compareAndSet(STATE_RUNNING, STATE_CANCELED);
+	}
+
+	public boolean isQueued() {
+		return mState.get() == STATE_QUEUED;
+	}
+
+	public boolean isRunning() {
+		return mState.get() == STATE_RUNNING;
+	}
+
+	public boolean isCanceled() {
+		return mState.get() == STATE_CANCELED;
+	}
+
+	/**
+	 * Stores information about the moment request was started.
+	 * 
+	 * @param startTime
+	 *            Start time in milliseconds.
+	 * @param runningRequestCount
+	 *            Count of requests running at start, including this one.
+	 */
+	public void setStarted(final long startTime, final int runningRequestCount) {
+		mStartTime = startTime;
+		mRunningRequestCountAtStart = runningRequestCount;
+	}
+
+	public long getStartTime() {
+		return mStartTime;
+	}
+
+	public int getRunningRequestCountAtStart() {
+		return mRunningRequestCountAtStart;
+	}
+
+	/**
+	 * @return Count of retries the request has had.
+	 */
+	public int getRetryCount() {
+		return mRetryCount;
+	}
+
+	public void onRetry() {
+		mRetryCount++;
+	}
+
+	/**
+	 * @return true, if request is sent without If-None-Match and
+	 *         If-Modified-Since headers.
+	 */
+	public boolean isUnconditional() {
+		return mUnconditional;
+	}
+
+	public void setUnconditional() {
+		mUnconditional = true;
+	}
+
+	public String getCircuitHost() {
+		return mCircuitHost;
+	}
+
+	/**
+	 * @param circuitHost
+	 *            Host whose circuit breaker allowed the request.
+	 * @param circuitProbe
+	 *            true, if the request was allowed as a probe.
+	 */
+	public void setCircuitHost(final String circuitHost,
+			final boolean circuitProbe) {
+		mCircuitHost = circuitHost;
+		mCircuitProbe = circuitProbe;
+	}
+
+	/**
+	 * Returns whether the request is a probe whose outcome has not been
+	 * reported, and marks it reported.
+	 * 
+	 * @return true, if the request is an unreported probe.
+	 */
+	public synchronized boolean takeCircuitProbe() {
+		boolean probe = mCircuitProbe;
+		mCircuitProbe = false;
+
+		return probe;
+	}
+
+	public boolean isCoalescable() {
+		return mCoalescable;
+	}
+
+	/**
+	 * Builds key identifying requests which can share one response or cached
+	 * result: same request class, method, url, headers and result classes.
+	 * 
+	 * @return Key of the request.
+	 */
+	public String getRequestKey() {
+		if (mRequestKey == null) {
+			StringBuilder key = new StringBuilder(128);
+			key.append(mRequest.getClass().getName()).append(' ')
+					.append(mRequest.getMethod()).append(' ')
+					.append(mRequest.getUrl());
+
+			Map<String, String> headers = mRequest.getHeaders();
+
+			if (headers != null) {
+				for (Map.Entry<String, String> header : new TreeMap<String, String>(
+						headers).entrySet()) {
+					key.append('\n').append(header.getKey()).append(':')
+							.append(header.getValue());
+				}
+			}
+
+			key.append('\n').append(
+					mRequest.getClassOfSuccessfulObject().getName());
+			key.append(' ').append(mRequest.getClassOfFailedObject().getName());
+
+			mRequestKey = key.toString();
+		}
+
+		return mRequestKey;
+	}
+
+	/**
+	 * @return Node running the shared request if this node is attached to
+	 *         another identical request, otherwise <code>null</code>.
+	 */
+	public RequestNode getPrimary() {
+		return mPrimary;
+	}
+
+	/**
+	 * Attaches node to receive the response of identical request.
+	 * 
+	 * @param subscriber
+	 *            Node of the identical request.
+	 */
+	public void addSubscriber(final RequestNode subscriber) {
+		if (mSubscribers.isEmpty()) {
+			mSubscribers = new ArrayList<RequestNode>(2);
+		}
+
+		mSubscribers.add(subscriber);
+		subscriber.mPrimary = this;
+	}
+
+	public void removeSubscriber(final RequestNode subscriber) {
+		mSubscribers.remove(subscriber);
+	}
+
+	public boolean hasSubscribers() {
+		return !mSubscribers.isEmpty();
+	}
+
+	/**
+	 * @return Attached subscribers, which are detached from this node.
+	 */
+	public List<RequestNode> takeSubscribers() {
+		List<RequestNode> subscribers = mSubscribers;
+		mSubscribers = Collections.emptyList();
+
+		return subscribers;
+	}
+
+	/**
+	 * @return true, if the request running for subscribers has itself been
+	 *         canceled.
+	 */
+	public boolean isOwnerCanceled() {
+		return mOwnerCanceled;
+	}
+
+	public void setOwnerCanceled(boolean ownerCanceled) {
+		mOwnerCanceled = ownerCanceled;
+	}
+
+	/**
+	 * @return Attached subscribers.
+	 */
+	public List<RequestNode> getSubscribers() {
+		return mSubscribers;
+	}
+
+	/**
+	 * @return true, if listener has got the cached result while the request
+	 *         is revalidated.
+	 */
+	public boolean isStaleDelivered() {
+		return mStaleDelivered;
+	}
+
+	/**
+	 * Marks cached result delivered to listener.
+	 * 
+	 * @param contentHash
+	 *            Hash of the cached response body.
+	 */
+	public void setStaleDelivered(final long contentHash) {
+		mStaleDelivered = true;
+		mStaleContentHash = contentHash;
+	}
+
+	public long getStaleContentHash() {
+		return mStaleContentHash;
+	}
+
+	public String getHostKey() {
+		return mHostKey;
+	}
+
+	public void setHostKey(String hostKey) {
+		mHostKey = hostKey;
+	}
+
+	public boolean isDispatched() {
+		return mDispatched;
+	}
+
+	public void setDispatched(boolean dispatched) {
+		mDispatched = dispatched;
+	}
+
+	public TransportCall getTransportCall() {
+		return mTransportCall;
+	}
+
+	public void setTransportCall(TransportCall transportCall) {
+		mTransportCall = transportCall;
+	}
+
+	/**
+	 * Starts new attempt of the request. Called by the thread running the
+	 * scheduling.
+	 * 
+	 * @return Number of the attempt.
+	 */
+	public int nextAttempt() {
+		mHedgeCall = null;
+		mRunningCallCount.set(0);
+
+		return ++mAttempt;
+	}
+
+	public int getAttempt() {
+		return mAttempt;
+	}
+
+	/**
+	 * Claims the attempt for the first response of it, so a response of its
+	 * hedge or the hedged request arriving later is ignored.
+	 * 
+	 * @param attempt
+	 *            Number of the attempt.
+	 * @return true, if this is the first response of the attempt.
+	 */
+	public boolean claimAttempt(final int attempt) {
+		return mClaimedAttempt.compareAndSet(attempt - 1, attempt);
+	}
+
+	/**
+	 * @return true, if the attempt has got a response.
+	 */
+	public boolean isAttemptClaimed(final int attempt) {
+		return mClaimedAttempt.get() >= attempt;
+	}
+
+	public TransportCall getHedgeCall() {
+		return mHedgeCall;
+	}
+
+	public void setHedgeCall(TransportCall hedgeCall) {
+		mHedgeCall = hedgeCall;
+	}
+
+	/**
+	 * Called before transport call of the current attempt is started.
+	 */
+	public void onCallStarted() {
+		mRunningCallCount.incrementAndGet();
+	}
+
+	/**
+	 * Called when transport call of the current attempt fails.
+	 * 
+	 * @return true, if other call of the attempt is still running.
+	 */
+	public boolean onCallFailed() {
+		return mRunningCallCount.decrementAndGet() > 0;
+	}
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.networking.nemo.enums.RequestPriority;
+import com.networking.nemo.util.UrlHelper;
+
+/**
+ * Keeps track of the requests waiting to be ran. Requests which depend on
+ * unfinished requests are kept as {@link RequestNode} in dependency graph and
+ * moved to the ready queues when all of their dependencies have finished.
+ * 
+ * Runnable requests are kept in a {@link HostQueue} per host, or per host group
+ * if the host belongs to one, with one FIFO queue per {@link RequestPriority}.
+ * For every priority there is a round robin list of host queues which have
+ * requests of that priority and a free running slot, so a host at its limit
+ * never blocks other hosts. Picking the next request is O(1) regardless of how
+ * many requests are waiting, and canceled requests are skipped instead of
+ * searched for.
+ * 
+ * This class is not thread safe, access must be guarded by the caller.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+class RequestScheduler {
+
+	private static final RequestPriority[] PRIORITIES = RequestPriority
+			.values();
+
+	// Host queues which have requests of the priority and free running slots
+	private final List<ArrayDeque<HostQueue>> mActiveHostQueues = new ArrayList<ArrayDeque<HostQueue>>(
+			PRIORITIES.length);
+	private final Map<String, HostQueue> mHostQueues = new HashMap<String, HostQueue>();
+
+	// Nodes of requests which are queued or running
+	private final Map<Integer, RequestNode> mNodes = new HashMap<Integer, RequestNode>();
+
+	// Running request limits per host or host group
+	private final Map<String, String> mHostGroups = new HashMap<String, String>();
+	private final Map<String, Integer> mMaxRunningRequestCounts = new HashMap<String, Integer>();
+	private int mDefaultMaxRunningRequestCountPerHost = Integer.MAX_VALUE;
+
+	public RequestScheduler() {
+		for (int i = 0; i < PRIORITIES.length; i++) {
+			mActiveHostQueues.add(new ArrayDeque<HostQueue>());
+		}
+	}
+
+	/**
+	 * Adds request node to scheduler. Request is ready to run right away
+	 * unless it depends on requests which have not finished yet. Nodes must
+	 * be added after the nodes they depend on. Canceled nodes are skipped.
+	 * 
+	 * @param node
+	 *            Request node to be scheduled.
+	 */
+	public void enqueue(final RequestNode node) {
+		if (node.isCanceled()) {
+			return;
+		}
+
+		for (int dependsOnId : node.getDependsOnIds()) {
+			RequestNode dependency = mNodes.get(dependsOnId);
+
+			if (dependency != null) {
+				dependency.addDependent(node);
+			}
+		}
+
+		mNodes.put(node.getId(), node);
+
+		if (!node.isBlocked()) {
+			addReady(node);
+		}
+	}
+
+	/**
+	 * Canceled nodes are removed lazily when they reach the head of their
+	 * ready queue.
+	 * 
+	 * @return Next queued request node with the highest priority whose host
+	 *         has a free running slot or <code>null</code> if there is no
+	 *         such request.
+	 */
+	public RequestNode poll() {
+		for (int i = 0; i < mActiveHostQueues.size(); i++) {
+			ArrayDeque<HostQueue> active = mActiveHostQueues.get(i);
+			HostQueue hostQueue;
+
+			while ((hostQueue = active.poll()) != null) {
+				// Full host may still be listed for other priorities
+				if (hostQueue.isFull()) {
+					hostQueue.setActive(i, false);
+					continue;
+				}
+
+				RequestNode node = hostQueue.poll(i);
+
+				if (node == null || hostQueue.isFull()) {
+					// Added back when it has requests and a free slot again
+					hostQueue.setActive(i, false);
+				} else {
+					// Round robin between hosts of the same priority
+					active.add(hostQueue);
+				}
+
+				if (node != null) {
+					node.setDispatched(true);
+					return node;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Marks request finished and releases requests depending on it. Also used
+	 * for canceled requests, which are then skipped when polled.
+	 * 
+	 * @param id
+	 *            Id of the finished request.
+	 */
+	public void finish(final int id) {
+		RequestNode node = mNodes.remove(id);
+
+		if (node == null) {
+			return;
+		}
+
+		if (node.isDispatched()) {
+			HostQueue hostQueue = mHostQueues.get(node.getHostKey());
+			hostQueue.onRequestFinished();
+			activate(hostQueue);
+			removeIfIdle(hostQueue);
+		}
+
+		for (RequestNode dependent : node.getDependents()) {
+			if (dependent.onDependencyFinished() && !dependent.isCanceled()) {
+				addReady(dependent);
+			}
+		}
+	}
+
+	public void setDefaultMaxRunningRequestCountPerHost(
+			final int maxRunningRequestCount) {
+		mDefaultMaxRunningRequestCountPerHost = maxRunningRequestCount;
+		updateLimits();
+	}
+
+	/**
+	 * Sets limit of running requests for host or host group.
+	 * 
+	 * @param hostOrGroup
+	 *            Host name or name of the host group.
+	 * @param maxRunningRequestCount
+	 *            Maximum count of running requests.
+	 */
+	public void setMaxRunningRequestCount(final String hostOrGroup,
+			final int maxRunningRequestCount) {
+		mMaxRunningRequestCounts.put(hostOrGroup, maxRunningRequestCount);
+		updateLimits();
+	}
+
+	/**
+	 * Makes hosts share the running request limit of the group. Only affects
+	 * requests scheduled after the call.
+	 * 
+	 * @param group
+	 *            Name of the host group.
+	 * @param hosts
+	 *            Host names of the group.
+	 */
+	public void setHostGroup(final String group, final String... hosts) {
+		for (String host : hosts) {
+			mHostGroups.put(host, group);
+		}
+	}
+
+	private void addReady(final RequestNode node) {
+		String hostKey = node.getHostKey();
+
+		if (hostKey == null) {
+			String host = UrlHelper.getHost(node.getRequest().getUrl());
+			String group = mHostGroups.get(host);
+
+			hostKey = group != null ? group : host;
+			node.setHostKey(hostKey);
+		}
+
+		HostQueue hostQueue = mHostQueues.get(hostKey);
+
+		if (hostQueue == null) {
+			hostQueue = new HostQueue(hostKey,
+					getMaxRunningRequestCount(hostKey));
+			mHostQueues.put(hostKey, hostQueue);
+		}
+
+		hostQueue.add(node, getPriorityIndex(node));
+		activate(hostQueue);
+	}
+
+	/**
+	 * Adds host queue to the active lists of the priorities it has requests
+	 * for, if it has a free running slot.
+	 */
+	private void activate(final HostQueue hostQueue) {
+		if (hostQueue.isFull()) {
+			return;
+		}
+
+		for (int i = 0; i < PRIORITIES.length; i++) {
+			if (!hostQueue.isActive(i) && hostQueue.hasRequests(i)) {
+				hostQueue.setActive(i, true);
+				mActiveHostQueues.get(i).add(hostQueue);
+			}
+		}
+	}
+
+	private void removeIfIdle(final HostQueue hostQueue) {
+		if (hostQueue.isIdle()) {
+			mHostQueues.remove(hostQueue.getHostKey());
+		}
+	}
+
+	private void updateLimits() {
+		for (Map.Entry<String, HostQueue> entry : mHostQueues.entrySet()) {
+			HostQueue hostQueue = entry.getValue();
+			hostQueue.setMaxRunningRequestCount(getMaxRunningRequestCount(entry
+					.getKey()));
+
+			if (hostQueue.isFull()) {
+				deactivate(hostQueue);
+			} else {
+				activate(hostQueue);
+			}
+		}
+	}
+
+	/**
+	 * Removes host queue from the active lists of all priorities.
+	 */
+	private void deactivate(final HostQueue hostQueue) {
+		for (int i = 0; i < PRIORITIES.length; i++) {
+			if (hostQueue.isActive(i)) {
+				hostQueue.setActive(i, false);
+				mActiveHostQueues.get(i).remove(hostQueue);
+			}
+		}
+	}
+
+	private int getMaxRunningRequestCount(final String hostKey) {
+		Integer max = mMaxRunningRequestCounts.get(hostKey);
+
+		return max != null ? max : mDefaultMaxRunningRequestCountPerHost;
+	}
+
+	private int getPriorityIndex(final RequestNode node) {
+		return node.getPriority().ordinal();
+	}
+
+	/**
+	 * Ready requests and running request count of one host or host group.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	private static class HostQueue {
+
+		private final List<ArrayDeque<RequestNode>> mReadyQueues = new ArrayList<ArrayDeque<RequestNode>>(
+				PRIORITIES.length);
+		private final boolean[] mActive = new boolean[PRIORITIES.length];
+		private final String mHostKey;
+		private int mRunningRequestCount = 0;
+		private int mMaxRunningRequestCount;
+
+		public HostQueue(final String hostKey, final int maxRunningRequestCount) {
+			mHostKey = hostKey;
+			mMaxRunningRequestCount = maxRunningRequestCount;
+
+			for (int i = 0; i < PRIORITIES.length; i++) {
+				mReadyQueues.add(new ArrayDeque<RequestNode>());
+			}
+		}
+
+		public String getHostKey() {
+			return mHostKey;
+		}
+
+		public void add(final RequestNode node, final int priorityIndex) {
+			mReadyQueues.get(priorityIndex).add(node);
+		}
+
+		/**
+		 * @return Next queued node of the priority, or <code>null</code> if
+		 *         none.
+		 */
+		public RequestNode poll(final int priorityIndex) {
+			ArrayDeque<RequestNode> queue = mReadyQueues.get(priorityIndex);
+			RequestNode node;
+
+			while ((node = queue.poll()) != null) {
+				if (node.isQueued()) {
+					mRunningRequestCount++;
+					return node;
+				}
+			}
+
+			return null;
+		}
+
+		public void onRequestFinished() {
+			mRunningRequestCount--;
+		}
+
+		public boolean hasRequests(final int priorityIndex) {
+			return !mReadyQueues.get(priorityIndex).isEmpty();
+		}
+
+		public boolean isFull() {
+			return mRunningRequestCount >= mMaxRunningRequestCount;
+		}
+
+		public boolean isIdle() {
+			if (mRunningRequestCount > 0) {
+				return false;
+			}
+
+			for (ArrayDeque<RequestNode> queue : mReadyQueues) {
+				if (!queue.isEmpty()) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		public boolean isActive(final int priorityIndex) {
+			return mActive[priorityIndex];
+		}
+
+		public void setActive(final int priorityIndex, final boolean active) {
+			mActive[priorityIndex] = active;
+		}
+
+		public void setMaxRunningRequestCount(final int maxRunningRequestCount) {
+			mMaxRunningRequestCount = maxRunningRequestCount;
+		}
+	}
+}
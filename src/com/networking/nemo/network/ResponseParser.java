@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import org.apache.http.HttpStatus;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.networking.nemo.deserializer.JsonKeyNotFoundExpection;
+import com.networking.nemo.deserializer.JsonRequired;
+import com.networking.nemo.deserializer.ValidatingDeserializer;
+import com.networking.nemo.enums.NetworkErrorReason;
+import com.networking.nemo.request.JsonNetworkRequest;
+import com.networking.nemo.request.JsonNetworkRequestError;
+import com.networking.nemo.request.ValidatingJsonNetworkRequest;
+import com.networking.nemo.transport.TransportResponse;
+import com.networking.nemo.util.GsonRegistry;
+import com.networking.nemo.util.NemoLog;
+
+/**
+ * Turns {@link TransportResponse} into the success or error object of
+ * {@link JsonNetworkRequest}, including {@link JsonRequired} checks
+ * and validation of {@link ValidatingJsonNetworkRequest}. Independent of the
+ * transport the response came from and safe to use from any thread.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+class ResponseParser {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * @param request
+	 *            Request the response belongs to.
+	 * @param response
+	 *            Response of the server.
+	 * @return Parsed result.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T, K extends JsonNetworkRequestError> Result parse(
+			final JsonNetworkRequest<T, K> request,
+			final TransportResponse response) {
+		int statusCode = response.getStatusCode();
+
+		if (statusCode < HttpStatus.SC_OK
+				|| statusCode >= HttpStatus.SC_MULTIPLE_CHOICES) {
+			// Log
+			NemoLog.error(NetworkRequestManager.class, "error, url: "
+					+ request.getUrl());
+			NemoLog.error(NetworkRequestManager.class, "status code: "
+					+ statusCode);
+
+			return Result.error(createError(request, statusCode));
+		}
+
+		// Check for empty data, transport may give no body at all
+		if (response.getBody() == null || response.getBody().length == 0) {
+			// Log
+			NemoLog.error(NetworkRequestManager.class, "empty response, url: "
+					+ request.getUrl());
+
+			return Result.error(createError(request, statusCode));
+		}
+
+		byte[] body = response.getBody();
+
+		try {
+			// Fill success and validation objects in one pass
+			if (request instanceof ValidatingJsonNetworkRequest<?, ?>
+					&& ((ValidatingJsonNetworkRequest<T, K>) request)
+							.getShouldParseInSinglePass()
+					&& ValidatingDeserializer.canDeserialize(
+							request.getClassOfSuccessfulObject(),
+							request.getClassOfFailedObject())) {
+				return parseInSinglePass(
+						(ValidatingJsonNetworkRequest<T, K>) request, body,
+						statusCode);
+			}
+
+			Object success = fromJson(body,
+					GsonRegistry.getJsonRequiredAdapter(request
+							.getClassOfSuccessfulObject()));
+
+			// Log
+			NemoLog.debug(NetworkRequestManager.class, "success, url: "
+					+ request.getUrl());
+			NemoLog.debug(NetworkRequestManager.class, "response: "
+					+ body.length + " bytes");
+
+			// Check if result needs more validation
+			if (request instanceof ValidatingJsonNetworkRequest<?, ?>) {
+				K error = fromJson(body,
+						GsonRegistry.getAdapter(request.getClassOfFailedObject()));
+
+				if (!((ValidatingJsonNetworkRequest<T, K>) request)
+						.isValid(error)) {
+					error.setHttpStatusCode(statusCode);
+					error.setReason(NetworkErrorReason.VALIDATION_ERROR);
+
+					return Result.error(error);
+				}
+			}
+
+			return Result.success(success);
+		} catch (JsonKeyNotFoundExpection e) {
+			// Log
+			NemoLog.error(NetworkRequestManager.class, "request url: "
+					+ request.getUrl());
+			NemoLog.error(NetworkRequestManager.class,
+					"response missing field in JSON: " + e.getMessage());
+
+			JsonNetworkRequestError error = createError(request, statusCode);
+			error.setReason(NetworkErrorReason.KEY_NOT_FOUND);
+
+			return Result.error(error);
+		} catch (JsonParseException e) {
+			// Log
+			NemoLog.error(NetworkRequestManager.class, "invalid JSON, url: "
+					+ request.getUrl());
+			NemoLog.error(NetworkRequestManager.class,
+					"message: " + e.getMessage());
+
+			return Result.error(createError(request, statusCode));
+		}
+	}
+
+	/**
+	 * Parses success and validation objects of the request with
+	 * {@link ValidatingDeserializer}.
+	 * 
+	 * @param request
+	 *            Request the response belongs to.
+	 * @param body
+	 *            Body of the response.
+	 * @param statusCode
+	 *            Http status code of the response.
+	 * @return Parsed result.
+	 */
+	private <T, K extends JsonNetworkRequestError> Result parseInSinglePass(
+			final ValidatingJsonNetworkRequest<T, K> request,
+			final byte[] body, final int statusCode) {
+		ValidatingDeserializer.Result<T, K> result = read(body,
+				new BodyReader<ValidatingDeserializer.Result<T, K>>() {
+
+					@Override
+					public ValidatingDeserializer.Result<T, K> read(
+							JsonReader in) throws IOException {
+						return ValidatingDeserializer.deserialize(in,
+								request.getClassOfSuccessfulObject(),
+								request.getClassOfFailedObject(),
+								new ValidatingDeserializer.Validator<K>() {
+
+									@Override
+									public boolean isValid(K object) {
+										return request.isValid(object);
+									}
+								});
+					}
+				});
+
+		K error = result != null ? result.getError() : null;
+		boolean valid = result != null ? result.isValid() : request
+				.isValid(error);
+
+		if (!valid) {
+			if (result != null && result.isValidatedEarly()) {
+				NemoLog.debug(NetworkRequestManager.class,
+						"not valid, rest of response skipped, url: "
+								+ request.getUrl());
+			}
+
+			error.setHttpStatusCode(statusCode);
+			error.setReason(NetworkErrorReason.VALIDATION_ERROR);
+
+			return Result.error(error);
+		}
+
+		// Log
+		NemoLog.debug(NetworkRequestManager.class, "success, url: "
+				+ request.getUrl());
+		NemoLog.debug(NetworkRequestManager.class, "response: " + body.length
+				+ " bytes");
+
+		return Result.success(result != null ? result.getSuccess() : null);
+	}
+
+	/**
+	 * Parses object straight from the UTF-8 bytes of the response without
+	 * copying them to a String first.
+	 * 
+	 * @param body
+	 *            Body of the response.
+	 * @param adapter
+	 *            Cached adapter of the class.
+	 * @return Parsed object or <code>null</code> if body has no JSON.
+	 * @throws JsonParseException
+	 *             if body is not valid JSON of the class.
+	 */
+	private static <T> T fromJson(final byte[] body,
+			final TypeAdapter<T> adapter) {
+		return read(body, new BodyReader<T>() {
+
+			@Override
+			public T read(JsonReader in) throws IOException {
+				return adapter.read(in);
+			}
+		});
+	}
+
+	/**
+	 * Reads body with the reader, translating errors the same way Gson does.
+	 * 
+	 * @param body
+	 *            Body of the response.
+	 * @param bodyReader
+	 *            Reader of the Json.
+	 * @return Read object or <code>null</code> if body has no JSON.
+	 * @throws JsonParseException
+	 *             if body cannot be read.
+	 */
+	private static <T> T read(final byte[] body,
+			final BodyReader<T> bodyReader) {
+		JsonReader reader = new JsonReader(new InputStreamReader(
+				new ByteArrayInputStream(body), UTF_8));
+
+		// Same leniency as Gson
+		reader.setLenient(true);
+
+		try {
+			try {
+				reader.peek();
+			} catch (EOFException e) {
+				return null;
+			}
+
+			T object = bodyReader.read(reader);
+
+			// Same as parsing a String, trailing data is an error
+			if (reader.peek() != JsonToken.END_DOCUMENT) {
+				throw new JsonSyntaxException(
+						"JSON document was not fully consumed.");
+			}
+
+			return object;
+		} catch (IllegalStateException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new JsonSyntaxException(e);
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// Nothing to release for a byte array
+			}
+		}
+	}
+
+	/**
+	 * Reads an object from the Json of a response body.
+	 * 
+	 * @param <T>
+	 *            Class of the read object.
+	 */
+	private interface BodyReader<T> {
+		public T read(JsonReader in) throws IOException;
+	}
+
+	/**
+	 * Creates error object of the request.
+	 * 
+	 * @param request
+	 *            Failed request.
+	 * @param statusCode
+	 *            Http status code of the response, 0 if there was none.
+	 * @return Error with {@link NetworkErrorReason#HTTP_ERROR} as reason unless
+	 *         status code is {@link HttpStatus#SC_OK}.
+	 */
+	public <K extends JsonNetworkRequestError> K createError(
+			final JsonNetworkRequest<?, K> request, final int statusCode) {
+		K error;
+
+		try {
+			error = request.getClassOfFailedObject().newInstance();
+		} catch (InstantiationException e) {
+			throw new IllegalStateException(
+					"Class of failed object must have public no-argument constructor.",
+					e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(
+					"Class of failed object must have public no-argument constructor.",
+					e);
+		}
+
+		error.setHttpStatusCode(statusCode);
+
+		if (statusCode != HttpStatus.SC_OK) {
+			error.setReason(NetworkErrorReason.HTTP_ERROR);
+		}
+
+		return error;
+	}
+
+	/**
+	 * Success or error object of parsed response.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	public static class Result {
+
+		private final Object mSuccess;
+		private final JsonNetworkRequestError mError;
+
+		private Result(final Object success,
+				final JsonNetworkRequestError error) {
+			mSuccess = success;
+			mError = error;
+		}
+
+		public static Result success(final Object success) {
+			return new Result(success, null);
+		}
+
+		public static Result error(final JsonNetworkRequestError error) {
+			return new Result(null, error);
+		}
+
+		public boolean isSuccess() {
+			return mError == null;
+		}
+
+		public Object getSuccess() {
+			return mSuccess;
+		}
+
+		public JsonNetworkRequestError getError() {
+			return mError;
+		}
+	}
+}
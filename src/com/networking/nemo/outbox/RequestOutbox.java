@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.outbox;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.networking.nemo.util.RecordLog;
+
+/**
+ * Durable queue of requests which could not be sent while offline. Every
+ * request is appended as a record to a {@link RecordLog} and its removal
+ * appended when it has been sent, so pending requests survive restarts.
+ * Request becomes pending only after it has been written.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class RequestOutbox extends RecordLog<RequestOutbox.Entry> {
+
+	private static final String THREAD_NAME = "nemo-outbox";
+	private static final int MAGIC = 0x4E4F4231;
+
+	// Header count is written with 16 bits
+	private static final int MAX_HEADER_COUNT = 0xFFFF;
+
+	/**
+	 * Listener told when the pending requests have been read from the file.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	public interface OnLoadedListener {
+
+		/**
+		 * Called on the background thread of the outbox.
+		 * 
+		 * @param pendingCount
+		 *            Count of pending requests.
+		 */
+		void onLoaded(int pendingCount);
+	}
+
+	// Guarded by this, in the order the requests were added
+	private final LinkedHashMap<Long, Entry> mPending = new LinkedHashMap<Long, Entry>();
+
+	// Accessed only on the executor thread
+	private Map<Long, Entry> mLoaded;
+	private long mNextId = 0;
+
+	/**
+	 * @param file
+	 *            Log file, created if it does not exist.
+	 */
+	public RequestOutbox(final File file) {
+		super(file, MAGIC, THREAD_NAME);
+	}
+
+	/**
+	 * Reads pending requests from the file in background. Must be called
+	 * before adding requests, which are appended after the file has been
+	 * read.
+	 * 
+	 * @param listener
+	 *            Listener told when the requests have been read, or
+	 *            <code>null</code>.
+	 */
+	public void load(final OnLoadedListener listener) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				// Requests become pending only when the whole file is read
+				mLoaded = new LinkedHashMap<Long, Entry>();
+				boolean intact = read();
+				int loadedCount = mLoaded.size();
+				int pendingCount;
+
+				synchronized (RequestOutbox.this) {
+					mPending.putAll(mLoaded);
+					pendingCount = mPending.size();
+				}
+
+				mLoaded = null;
+
+				// Rewrite torn or mostly removed log before appending to it
+				if (!intact || shouldCompact(loadedCount)) {
+					compact();
+				}
+
+				if (listener != null) {
+					listener.onLoaded(pendingCount);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Appends request to the outbox. Request which cannot be written, such as
+	 * one with a header longer than 65535 bytes, is dropped.
+	 * 
+	 * @param entry
+	 *            Request to be sent later.
+	 */
+	public void add(final Entry entry) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				entry.mId = mNextId++;
+
+				if (write(entry, RECORD_ADD)) {
+					synchronized (RequestOutbox.this) {
+						mPending.put(entry.mId, entry);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Removes sent request from the outbox.
+	 * 
+	 * @param entry
+	 *            Request returned by {@link #peek(int)}.
+	 */
+	public void remove(final Entry entry) {
+		synchronized (this) {
+			if (mPending.remove(entry.mId) == null) {
+				return;
+			}
+		}
+
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				// Only removals leave garbage behind
+				if (write(entry, RECORD_REMOVE) && shouldCompact(size())) {
+					compact();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param maxCount
+	 *            Maximum count of requests returned.
+	 * @return Oldest pending requests in the order they were added. Requests
+	 *         stay pending until removed.
+	 */
+	public synchronized List<Entry> peek(final int maxCount) {
+		List<Entry> entries = new ArrayList<Entry>(Math.min(maxCount,
+				mPending.size()));
+		Iterator<Entry> it = mPending.values().iterator();
+
+		while (entries.size() < maxCount && it.hasNext()) {
+			entries.add(it.next());
+		}
+
+		return entries;
+	}
+
+	public synchronized int size() {
+		return mPending.size();
+	}
+
+	/**
+	 * Removes all requests from the outbox.
+	 */
+	public void clear() {
+		synchronized (this) {
+			mPending.clear();
+		}
+
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				compact();
+			}
+		});
+	}
+
+	@Override
+	public void delete() {
+		synchronized (this) {
+			mPending.clear();
+		}
+
+		super.delete();
+	}
+
+	@Override
+	protected boolean readRecord(final ByteBuffer buffer, final byte type)
+			throws IOException {
+		long id = buffer.getLong();
+
+		if (type == RECORD_ADD) {
+			Entry entry = readEntry(buffer);
+			entry.mId = id;
+			mLoaded.put(id, entry);
+		} else if (type == RECORD_REMOVE) {
+			mLoaded.remove(id);
+		} else {
+			return false;
+		}
+
+		mNextId = Math.max(mNextId, id + 1);
+
+		return true;
+	}
+
+	@Override
+	protected void writeRecord(final DataOutputStream out, final Entry entry,
+			final byte type) throws IOException {
+		out.writeByte(type);
+		out.writeLong(entry.mId);
+
+		if (type == RECORD_REMOVE) {
+			return;
+		}
+
+		if (entry.mHeaders.size() > MAX_HEADER_COUNT) {
+			throw new IOException("too many headers: "
+					+ entry.mHeaders.size());
+		}
+
+		writeString(out, entry.mMethod);
+		writeString(out, entry.mUrl);
+		writeString(out, entry.mContentType != null ? entry.mContentType : "");
+		out.writeShort(entry.mHeaders.size());
+
+		for (Map.Entry<String, String> header : entry.mHeaders.entrySet()) {
+			writeString(out, header.getKey());
+			writeString(out, header.getValue());
+		}
+
+		if (entry.mBody != null) {
+			out.writeInt(entry.mBody.length);
+			out.write(entry.mBody);
+		} else {
+			out.writeInt(-1);
+		}
+	}
+
+	@Override
+	protected synchronized Collection<Entry> getLiveRecords() {
+		return new ArrayList<Entry>(mPending.values());
+	}
+
+	private static Entry readEntry(final ByteBuffer buffer)
+			throws UnsupportedEncodingException {
+		String method = readString(buffer);
+		String url = readString(buffer);
+		String contentType = readString(buffer);
+		int headerCount = buffer.getShort() & 0xFFFF;
+		Map<String, String> headers = new HashMap<String, String>(headerCount);
+
+		for (int i = 0; i < headerCount; i++) {
+			headers.put(readString(buffer), readString(buffer));
+		}
+
+		int bodyLength = buffer.getInt();
+		byte[] body = null;
+
+		if (bodyLength >= 0) {
+			body = new byte[bodyLength];
+			buffer.get(body);
+		}
+
+		return new Entry(method, url, headers, body,
+				contentType.length() > 0 ? contentType : null);
+	}
+
+	/**
+	 * Serialized request waiting in the outbox.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	public static final class Entry {
+
+		private final String mMethod;
+		private final String mUrl;
+		private final Map<String, String> mHeaders;
+		private final byte[] mBody;
+		private final String mContentType;
+
+		// Set on the executor thread before the entry becomes pending
+		private long mId;
+
+		/**
+		 * @param method
+		 *            One of the METHOD_ constants of TransportRequest.
+		 * @param url
+		 *            Url of the request.
+		 * @param headers
+		 *            Headers of the request or <code>null</code>.
+		 * @param body
+		 *            Body of the request or <code>null</code>.
+		 * @param contentType
+		 *            Content type of the body.
+		 */
+		public Entry(final String method, final String url,
+				final Map<String, String> headers, final byte[] body,
+				final String contentType) {
+			mMethod = method;
+			mUrl = url;
+			mHeaders = headers != null ? Collections
+					.unmodifiableMap(new HashMap<String, String>(headers))
+					: Collections.<String, String> emptyMap();
+			mBody = body;
+			mContentType = contentType;
+		}
+
+		public String getMethod() {
+			return mMethod;
+		}
+
+		public String getUrl() {
+			return mUrl;
+		}
+
+		public Map<String, String> getHeaders() {
+			return mHeaders;
+		}
+
+		public byte[] getBody() {
+			return mBody;
+		}
+
+		public String getContentType() {
+			return mContentType;
+		}
+	}
+}
@@ -19,44 +19,20 @@ package com.networking.nemo.receiver;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 
-import com.networking.nemo.enums.NetworkState;
-import com.networking.nemo.util.NemoBus;
+import com.networking.nemo.util.NetworkStateChecker;
 
+/**
+ * Passes connectivity broadcasts to {@link NetworkStateChecker}, which
+ * debounces them and posts the resulting state to NemoBus.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
 public class NetworkStateReceiver extends BroadcastReceiver {
 
-	private NetworkState mState = null;
-
-	public NetworkStateReceiver() {
-		NemoBus.getInstance().register(this);
-	}
-
 	@Override
 	public void onReceive(final Context context, final Intent intent) {
-		if (intent.getExtras() != null) {
-			final ConnectivityManager connectivityManager = (ConnectivityManager) context
-					.getSystemService(Context.CONNECTIVITY_SERVICE);
-			final NetworkInfo networkInfo = connectivityManager
-					.getActiveNetworkInfo();
-
-			if (networkInfo != null && networkInfo.isConnectedOrConnecting()) {
-				// Connected
-				if (networkInfo.isConnected()) {
-					mState = NetworkState.CONNECTED;
-				}
-			} else if (intent.getBooleanExtra(
-					ConnectivityManager.EXTRA_NO_CONNECTIVITY, Boolean.FALSE)) {
-				// No connection
-				mState = NetworkState.DISCONNECTED;
-			}
-		}
-
-		if (mState != null) {
-			NemoBus.getInstance().post(mState);
-		}
-
-		NemoBus.getInstance().unregister(this);
+		NetworkStateChecker.getInstance(context).onConnectivityChanged();
 	}
 }
@@ -20,9 +20,13 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Request.Method;
 import com.android.volley.RetryPolicy;
 import com.android.volley.toolbox.Volley;
+import com.networking.nemo.enums.CachePolicy;
+import com.networking.nemo.enums.RequestPriority;
 import com.networking.nemo.network.NetworkRequestListener;
+import com.networking.nemo.network.NetworkRequestManager;
 
 /**
  * Simple class of Json network request.
@@ -42,12 +46,17 @@ public class JsonNetworkRequest<T, K extends JsonNetworkRequestError> {
 	private int mDependsOnId = -1;
 	private int mStartIdOfQueue = -1;
 	private int mMethod;
+	private RequestPriority mPriority = RequestPriority.NORMAL;
+	private Object mTag;
 	private String mUrl;
 	private Object mJsonBody;
 	private Class<T> mClassOfSuccessfulObject;
 	private Class<K> mClassOfFailedObject;
 	private NetworkRequestListener<T, K> mListener;
 	private Map<String, String> mHeaders = new HashMap<String, String>();
+	private int mTimeoutMillis = DefaultRetryPolicy.DEFAULT_TIMEOUT_MS;
+	private int mMaxRetries = DefaultRetryPolicy.DEFAULT_MAX_RETRIES;
+	private float mBackoffMultiplier = DefaultRetryPolicy.DEFAULT_BACKOFF_MULT;
 
 	public JsonNetworkRequest(final int method, final String url,
 			final Object jsonBody, final Class<T> classOfSuccessfulObject,
@@ -69,18 +78,49 @@ public class JsonNetworkRequest<T, K extends JsonNetworkRequestError> {
 		mId = id;
 	}
 
+	/**
+	 * @return Id of the request this request runs after, -1 if none. Set by
+	 *         {@link NetworkRequestManager#executeJsonRequestGraph(JsonNetworkRequestGraph)}
+	 *         to the last request it depends on.
+	 * @deprecated Dependencies are given with {@link JsonNetworkRequestGraph}.
+	 */
+	@Deprecated
 	public int getDependsOnId() {
 		return mDependsOnId;
 	}
 
+	/**
+	 * Request executed with
+	 * {@link NetworkRequestManager#executeJsonRequest(JsonNetworkRequest)}
+	 * runs after the request of the id has finished, if it is still queued
+	 * or running.
+	 * 
+	 * @param dependsOnId
+	 *            Id of the request, -1 if none.
+	 * @deprecated Use {@link JsonNetworkRequestGraph#addDependency} instead.
+	 */
+	@Deprecated
 	public void setDependsOnId(int dependsOnId) {
 		mDependsOnId = dependsOnId;
 	}
 
+	/**
+	 * @return Id of the first request of the graph the request was executed
+	 *         in, -1 if none.
+	 * @deprecated Dependencies are given with {@link JsonNetworkRequestGraph}.
+	 */
+	@Deprecated
 	public int getStartIdOfQueue() {
 		return mStartIdOfQueue;
 	}
 
+	/**
+	 * Has no effect, the request waits only for
+	 * {@link #setDependsOnId(int)}, which has waited for the earlier ones.
+	 * 
+	 * @deprecated Use {@link JsonNetworkRequestGraph} instead.
+	 */
+	@Deprecated
 	public void setStartIdOfQueue(int startIdOfQueue) {
 		mStartIdOfQueue = startIdOfQueue;
 	}
@@ -93,6 +133,29 @@ public class JsonNetworkRequest<T, K extends JsonNetworkRequestError> {
 		mMethod = method;
 	}
 
+	public RequestPriority getPriority() {
+		return mPriority;
+	}
+
+	public void setPriority(RequestPriority priority) {
+		mPriority = priority;
+	}
+
+	public Object getTag() {
+		return mTag;
+	}
+
+	/**
+	 * Sets tag used to cancel a group of requests with
+	 * {@link NetworkRequestManager#cancelByTag(Object)}.
+	 * 
+	 * @param tag
+	 *            Tag of the request.
+	 */
+	public void setTag(Object tag) {
+		mTag = tag;
+	}
+
 	public String getUrl() {
 		return mUrl;
 	}
@@ -141,13 +204,112 @@ public class JsonNetworkRequest<T, K extends JsonNetworkRequestError> {
 		mHeaders = headers;
 	}
 
+	public int getTimeoutMillis() {
+		return mTimeoutMillis;
+	}
+
+	public int getMaxRetries() {
+		return mMaxRetries;
+	}
+
+	public float getBackoffMultiplier() {
+		return mBackoffMultiplier;
+	}
+
+	/**
+	 * Sets timeout and retries used by {@link #getRetryPolicy()}.
+	 * 
+	 * @param timeoutMillis
+	 *            Timeout of the first attempt in milliseconds.
+	 * @param maxRetries
+	 *            Count of retries after the first attempt.
+	 * @param backoffMultiplier
+	 *            Growth of the timeout on each retry.
+	 */
+	public void setTimeout(final int timeoutMillis, final int maxRetries,
+			final float backoffMultiplier) {
+		if (timeoutMillis < 0 || maxRetries < 0 || backoffMultiplier < 0f) {
+			throw new IllegalArgumentException(
+					"timeout, retries and backoff multiplier must not be negative");
+		}
+
+		mTimeoutMillis = timeoutMillis;
+		mMaxRetries = maxRetries;
+		mBackoffMultiplier = backoffMultiplier;
+	}
+
 	/**
-	 * Method for setting RetryPolicy to the request.
+	 * Method for setting RetryPolicy to the request. New policy should be
+	 * returned on every call, as its retries are counted by exhausting it.
 	 * 
-	 * @return {@link DefaultRetryPolicy} by default
+	 * @return {@link DefaultRetryPolicy} of {@link #setTimeout(int, int, float)}
+	 *         by default
 	 */
 	public RetryPolicy getRetryPolicy() {
-		return new DefaultRetryPolicy();
+		return new DefaultRetryPolicy(mTimeoutMillis, mMaxRetries,
+				mBackoffMultiplier);
+	}
+
+	/**
+	 * Method for telling whether running request more than once has the same
+	 * effect as running it once. Only idempotent requests are retried by the
+	 * retry strategy of {@link NetworkRequestManager}. Override to mark a POST
+	 * request safe to retry.
+	 * 
+	 * @return true by default for GET, PUT and DELETE requests.
+	 */
+	public boolean isIdempotent() {
+		return mMethod == Method.GET || mMethod == Method.PUT
+				|| mMethod == Method.DELETE;
+	}
+
+	/**
+	 * Method for setting coalescing of request. Identical requests executed
+	 * while one of them is queued or running share its response instead of
+	 * running again. Requests are identical if they have the same class,
+	 * method, url, headers and result classes. Coalesced requests receive
+	 * the same result instance.
+	 * 
+	 * @return true by default for GET requests.
+	 */
+	public boolean getShouldCoalesce() {
+		return mMethod == Method.GET;
+	}
+
+	/**
+	 * Method for setting time to live of the parsed result in the response
+	 * cache of {@link NetworkRequestManager}. While the result is fresh,
+	 * identical GET requests get it without running or parsing anything.
+	 * Cached result instance is shared, so it must not be modified.
+	 * 
+	 * @return Time to live in milliseconds, 0 by default so results are not
+	 *         cached.
+	 */
+	public long getCacheTtl() {
+		return 0;
+	}
+
+	/**
+	 * Method for setting disk cache policy of request. Only GET requests are
+	 * cached.
+	 * 
+	 * @return {@link CachePolicy#NETWORK_ONLY} by default.
+	 */
+	public CachePolicy getCachePolicy() {
+		return CachePolicy.NETWORK_ONLY;
+	}
+
+	/**
+	 * Method for setting whether request made without network is kept in the
+	 * offline outbox of {@link NetworkRequestManager}, if enabled, and sent
+	 * when network is available again. Only the request is kept, its listener
+	 * is notified of the failure right away.
+	 * 
+	 * @return true by default for POST, PUT and DELETE requests.
+	 */
+	public boolean getShouldQueueOffline() {
+		return mMethod == Method.POST || mMethod == Method.PUT
+				|| mMethod == Method.DELETE;
 	}
 
 	/**
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.request;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Set of {@link JsonNetworkRequest} and the dependencies between them. Each
+ * request can depend on any number of other requests in the same graph and
+ * will be ran only after all of them have finished. Requests which do not
+ * depend on each other are ran in parallel.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class JsonNetworkRequestGraph {
+
+	private List<JsonNetworkRequest<?, ?>> mRequests = new ArrayList<JsonNetworkRequest<?, ?>>();
+	private Map<JsonNetworkRequest<?, ?>, List<JsonNetworkRequest<?, ?>>> mDependencies = new IdentityHashMap<JsonNetworkRequest<?, ?>, List<JsonNetworkRequest<?, ?>>>();
+
+	/**
+	 * Adds request to graph.
+	 * 
+	 * @param request
+	 *            Request to be added.
+	 * @return This graph.
+	 */
+	public JsonNetworkRequestGraph addRequest(
+			final JsonNetworkRequest<?, ?> request) {
+		if (request == null) {
+			throw new IllegalArgumentException(
+					"Parameter request cannot be null.");
+		}
+
+		if (!mDependencies.containsKey(request)) {
+			mRequests.add(request);
+			mDependencies.put(request, new ArrayList<JsonNetworkRequest<?, ?>>(
+					1));
+		}
+
+		return this;
+	}
+
+	/**
+	 * Makes request wait until dependency has finished. Both requests are
+	 * added to graph if not already added.
+	 * 
+	 * @param request
+	 *            Request which must wait.
+	 * @param dependsOn
+	 *            Request which must finish first.
+	 * @return This graph.
+	 */
+	public JsonNetworkRequestGraph addDependency(
+			final JsonNetworkRequest<?, ?> request,
+			final JsonNetworkRequest<?, ?> dependsOn) {
+		if (request == dependsOn) {
+			throw new IllegalArgumentException(
+					"Request cannot depend on itself.");
+		}
+
+		addRequest(request);
+		addRequest(dependsOn);
+
+		List<JsonNetworkRequest<?, ?>> dependencies = mDependencies
+				.get(request);
+
+		if (!dependencies.contains(dependsOn)) {
+			dependencies.add(dependsOn);
+		}
+
+		return this;
+	}
+
+	public List<JsonNetworkRequest<?, ?>> getRequests() {
+		return Collections.unmodifiableList(mRequests);
+	}
+
+	/**
+	 * @param request
+	 *            Request in this graph.
+	 * @return Requests the request depends on.
+	 */
+	public List<JsonNetworkRequest<?, ?>> getDependencies(
+			final JsonNetworkRequest<?, ?> request) {
+		List<JsonNetworkRequest<?, ?>> dependencies = mDependencies
+				.get(request);
+
+		if (dependencies == null) {
+			return Collections.emptyList();
+		}
+
+		return Collections.unmodifiableList(dependencies);
+	}
+
+	public boolean isEmpty() {
+		return mRequests.isEmpty();
+	}
+
+	/**
+	 * Orders requests so that every request comes after all of its
+	 * dependencies. Requests without dependencies between them keep the order
+	 * they were added in.
+	 * 
+	 * @return Requests in dependency order.
+	 * @throws IllegalStateException
+	 *             if dependencies contain a cycle.
+	 */
+	public List<JsonNetworkRequest<?, ?>> sortTopologically() {
+		Map<JsonNetworkRequest<?, ?>, Integer> unfinishedCounts = new IdentityHashMap<JsonNetworkRequest<?, ?>, Integer>();
+		Map<JsonNetworkRequest<?, ?>, List<JsonNetworkRequest<?, ?>>> dependents = new IdentityHashMap<JsonNetworkRequest<?, ?>, List<JsonNetworkRequest<?, ?>>>();
+		ArrayDeque<JsonNetworkRequest<?, ?>> ready = new ArrayDeque<JsonNetworkRequest<?, ?>>();
+
+		for (JsonNetworkRequest<?, ?> request : mRequests) {
+			List<JsonNetworkRequest<?, ?>> dependencies = mDependencies
+					.get(request);
+			unfinishedCounts.put(request, dependencies.size());
+
+			for (JsonNetworkRequest<?, ?> dependency : dependencies) {
+				List<JsonNetworkRequest<?, ?>> list = dependents
+						.get(dependency);
+
+				if (list == null) {
+					list = new ArrayList<JsonNetworkRequest<?, ?>>(1);
+					dependents.put(dependency, list);
+				}
+
+				list.add(request);
+			}
+
+			if (dependencies.isEmpty()) {
+				ready.add(request);
+			}
+		}
+
+		List<JsonNetworkRequest<?, ?>> sorted = new ArrayList<JsonNetworkRequest<?, ?>>(
+				mRequests.size());
+
+		while (!ready.isEmpty()) {
+			JsonNetworkRequest<?, ?> request = ready.poll();
+			sorted.add(request);
+
+			List<JsonNetworkRequest<?, ?>> list = dependents.get(request);
+
+			if (list != null) {
+				for (JsonNetworkRequest<?, ?> dependent : list) {
+					int count = unfinishedCounts.get(dependent) - 1;
+					unfinishedCounts.put(dependent, count);
+
+					if (count == 0) {
+						ready.add(dependent);
+					}
+				}
+			}
+		}
+
+		if (sorted.size() != mRequests.size()) {
+			throw new IllegalStateException(
+					"JsonNetworkRequestGraph contains a dependency cycle.");
+		}
+
+		return sorted;
+	}
+}
@@ -35,6 +35,18 @@ public abstract class ValidatingJsonNetworkRequest<T, K extends JsonNetworkReque
 
 	public abstract boolean isValid(K object);
 
+	/**
+	 * Method for setting single pass parsing of request. When enabled, one
+	 * pass over the response fills both the successful and the failed object,
+	 * and the rest of the successful object is skipped once the failed object
+	 * is found not valid. Used only when both are plain object classes.
+	 * 
+	 * @return true by default.
+	 */
+	public boolean getShouldParseInSinglePass() {
+		return true;
+	}
+
 	public ValidatingJsonNetworkRequest(int method, String url,
 			Object jsonBody, Class<T> classOfSuccessfulObject,
 			Class<K> classOfFailedObject, NetworkRequestListener<T, K> listener) {
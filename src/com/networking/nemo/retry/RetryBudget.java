@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.retry;
+
+import com.networking.nemo.util.TokenBucket;
+
+/**
+ * {@link TokenBucket} limiting retries to a fraction of the requests. During
+ * an outage retries stop once the saved tokens have been spent, instead of
+ * multiplying the load.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class RetryBudget {
+
+	private static final double DEFAULT_RETRY_RATIO = 0.1;
+	private static final int DEFAULT_MAX_TOKENS = 10;
+
+	private final TokenBucket mTokenBucket;
+
+	public RetryBudget() {
+		this(DEFAULT_RETRY_RATIO, DEFAULT_MAX_TOKENS);
+	}
+
+	/**
+	 * @param retryRatio
+	 *            Tokens deposited for each request, which is the long term
+	 *            maximum ratio of retries to requests.
+	 * @param maxTokens
+	 *            Maximum count of saved retries, allowing bursts of retries
+	 *            when there is little traffic.
+	 */
+	public RetryBudget(final double retryRatio, final int maxTokens) {
+		mTokenBucket = new TokenBucket(retryRatio, maxTokens);
+	}
+
+	/**
+	 * Called when request is sent for the first time.
+	 */
+	public void onRequest() {
+		mTokenBucket.deposit();
+	}
+
+	/**
+	 * Withdraws token for a retry.
+	 * 
+	 * @return true, if the retry fits in the budget.
+	 */
+	public boolean tryRetry() {
+		return mTokenBucket.tryWithdraw();
+	}
+
+	public double getTokens() {
+		return mTokenBucket.getTokens();
+	}
+
+	/**
+	 * @return Count of retries allowed.
+	 */
+	public long getRetryCount() {
+		return mTokenBucket.getWithdrawnCount();
+	}
+
+	/**
+	 * @return Count of retries refused because the budget was spent.
+	 */
+	public long getRejectedCount() {
+		return mTokenBucket.getRejectedCount();
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.retry;
+
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.android.volley.TimeoutError;
+import com.networking.nemo.enums.RetryableFailure;
+
+/**
+ * Decides which failures are retried and how long to wait before each retry.
+ * Delay grows exponentially with full jitter: it is picked at random between
+ * zero and the exponential delay, so requests failing at the same moment do
+ * not retry at the same moment.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class RetryStrategy {
+
+	private static final int DEFAULT_MAX_RETRIES = 2;
+	private static final long DEFAULT_BASE_DELAY_MILLIS = 200;
+	private static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int HTTP_BAD_GATEWAY = 502;
+	private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+	private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+	private final int mMaxRetries;
+	private final long mBaseDelayMillis;
+	private final long mMaxDelayMillis;
+	private final Set<RetryableFailure> mRetryableFailures;
+	private final Random mRandom = new Random();
+
+	/**
+	 * Retries connection failures, timeouts and unavailable server twice,
+	 * waiting up to 200 ms before the first retry.
+	 */
+	public RetryStrategy() {
+		this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS,
+				DEFAULT_MAX_DELAY_MILLIS, RetryableFailure.CONNECTION_FAILURE,
+				RetryableFailure.TIMEOUT, RetryableFailure.SERVER_UNAVAILABLE);
+	}
+
+	/**
+	 * @param maxRetries
+	 *            Maximum count of retries of a request.
+	 * @param baseDelayMillis
+	 *            Maximum delay before the first retry, doubled for each
+	 *            retry after it.
+	 * @param maxDelayMillis
+	 *            Delay never goes above this.
+	 * @param retryableFailures
+	 *            Failures which are retried.
+	 */
+	public RetryStrategy(final int maxRetries, final long baseDelayMillis,
+			final long maxDelayMillis,
+			final RetryableFailure... retryableFailures) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException(
+					"Parameter maxRetries cannot be negative.");
+		}
+
+		if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+			throw new IllegalArgumentException(
+					"Delays must satisfy 0 <= baseDelayMillis <= maxDelayMillis.");
+		}
+
+		mMaxRetries = maxRetries;
+		mBaseDelayMillis = baseDelayMillis;
+		mMaxDelayMillis = maxDelayMillis;
+
+		Set<RetryableFailure> failures = EnumSet
+				.noneOf(RetryableFailure.class);
+		Collections.addAll(failures, retryableFailures);
+		mRetryableFailures = Collections.unmodifiableSet(failures);
+	}
+
+	public int getMaxRetries() {
+		return mMaxRetries;
+	}
+
+	public Set<RetryableFailure> getRetryableFailures() {
+		return mRetryableFailures;
+	}
+
+	/**
+	 * @param failure
+	 *            Failure of the request.
+	 * @param retryCount
+	 *            Count of retries the request has had.
+	 * @return true, if the request may be retried.
+	 */
+	public boolean shouldRetry(final RetryableFailure failure,
+			final int retryCount) {
+		return failure != null && retryCount < mMaxRetries
+				&& mRetryableFailures.contains(failure);
+	}
+
+	/**
+	 * @param retryCount
+	 *            Count of retries the request has had.
+	 * @return Random delay in milliseconds before the next retry.
+	 */
+	public long getDelayMillis(final int retryCount) {
+		// Doubling stops at the maximum
+		long delay = mBaseDelayMillis;
+
+		for (int i = 0; i < retryCount && delay < mMaxDelayMillis; i++) {
+			delay *= 2;
+		}
+
+		delay = Math.min(delay, mMaxDelayMillis);
+
+		return (long) (mRandom.nextDouble() * (delay + 1));
+	}
+
+	/**
+	 * @param statusCode
+	 *            Status code of the response.
+	 * @return Failure the status code tells of, or <code>null</code> if it is
+	 *         not retryable.
+	 */
+	public static RetryableFailure getFailure(final int statusCode) {
+		switch (statusCode) {
+		case HTTP_TOO_MANY_REQUESTS:
+			return RetryableFailure.TOO_MANY_REQUESTS;
+		case HTTP_BAD_GATEWAY:
+		case HTTP_SERVICE_UNAVAILABLE:
+		case HTTP_GATEWAY_TIMEOUT:
+			return RetryableFailure.SERVER_UNAVAILABLE;
+		default:
+			return statusCode >= 500 && statusCode < 600 ? RetryableFailure.SERVER_ERROR
+					: null;
+		}
+	}
+
+	/**
+	 * @param error
+	 *            Error of a request which got no response.
+	 * @return {@link RetryableFailure#TIMEOUT} or
+	 *         {@link RetryableFailure#CONNECTION_FAILURE}.
+	 */
+	public static RetryableFailure getFailure(final Exception error) {
+		if (error instanceof TimeoutError
+				|| error instanceof SocketTimeoutException) {
+			return RetryableFailure.TIMEOUT;
+		}
+
+		return RetryableFailure.CONNECTION_FAILURE;
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Transport} running requests with {@link HttpURLConnection} on a
+ * thread pool. Does not depend on Android, so it can be used to run requests
+ * on a plain JVM, e.g. for benchmarking. Responses are not cached.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class HttpUrlConnectionTransport implements Transport {
+
+	private static final int DEFAULT_THREAD_POOL_SIZE = 4;
+	private static final int BUFFER_SIZE = 4096;
+	private static final String THREAD_NAME = "nemo-transport-";
+	private static final String CONTENT_TYPE_KEY = "Content-Type";
+
+	private ExecutorService mExecutor;
+
+	public HttpUrlConnectionTransport() {
+		this(DEFAULT_THREAD_POOL_SIZE);
+	}
+
+	/**
+	 * @param threadPoolSize
+	 *            Count of requests sent simultaneously.
+	 */
+	public HttpUrlConnectionTransport(final int threadPoolSize) {
+		this(Executors.newFixedThreadPool(threadPoolSize, new ThreadFactory() {
+
+			private final AtomicInteger mThreadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, THREAD_NAME
+						+ mThreadCount.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		}));
+	}
+
+	/**
+	 * @param executor
+	 *            Executor running the requests. Callbacks are invoked on its
+	 *            threads.
+	 */
+	public HttpUrlConnectionTransport(final ExecutorService executor) {
+		mExecutor = executor;
+	}
+
+	@Override
+	public TransportCall execute(final TransportRequest request,
+			final TransportCallback callback) {
+		ConnectionCall call = new ConnectionCall(request, callback);
+		mExecutor.execute(call);
+
+		return call;
+	}
+
+	/**
+	 * Stops the threads of this transport. Running requests are interrupted.
+	 */
+	public void shutdown() {
+		mExecutor.shutdownNow();
+	}
+
+	/**
+	 * Request running on one thread of the pool, retried on timeout as
+	 * allowed by {@link TransportRequest#getMaxRetries()}. Connection is kept
+	 * alive for reuse unless the request is canceled.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	private static class ConnectionCall implements TransportCall, Runnable {
+
+		private final TransportRequest mRequest;
+		private final TransportCallback mCallback;
+		private volatile boolean mCanceled = false;
+		private volatile HttpURLConnection mConnection;
+
+		public ConnectionCall(final TransportRequest request,
+				final TransportCallback callback) {
+			mRequest = request;
+			mCallback = callback;
+		}
+
+		@Override
+		public void cancel() {
+			mCanceled = true;
+
+			HttpURLConnection connection = mConnection;
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				runWithRetries();
+			} finally {
+				mRequest.releaseBody();
+			}
+		}
+
+		private void runWithRetries() {
+			int timeoutMillis = mRequest.getTimeoutMillis();
+			int retryCount = 0;
+
+			while (!mCanceled) {
+				try {
+					TransportResponse response = perform(timeoutMillis);
+
+					if (!mCanceled) {
+						mCallback.onResponse(response);
+					}
+
+					return;
+				} catch (SocketTimeoutException e) {
+					if (retryCount++ >= mRequest.getMaxRetries()) {
+						onFailure(e);
+						return;
+					}
+
+					timeoutMillis += (int) (timeoutMillis * mRequest
+							.getBackoffMultiplier());
+				} catch (IOException e) {
+					onFailure(e);
+					return;
+				}
+			}
+		}
+
+		private void onFailure(final Exception error) {
+			// Failure caused by canceling is not reported
+			if (!mCanceled) {
+				mCallback.onFailure(error);
+			}
+		}
+
+		private TransportResponse perform(final int timeoutMillis)
+				throws IOException {
+			HttpURLConnection connection = (HttpURLConnection) new URL(
+					mRequest.getUrl()).openConnection();
+			mConnection = connection;
+
+			try {
+				connection.setConnectTimeout(timeoutMillis);
+				connection.setReadTimeout(timeoutMillis);
+				connection.setUseCaches(false);
+				connection.setDoInput(true);
+				connection.setRequestMethod(mRequest.getMethod());
+
+				for (Map.Entry<String, String> header : mRequest.getHeaders()
+						.entrySet()) {
+					connection.addRequestProperty(header.getKey(),
+							header.getValue());
+				}
+
+				byte[] body = mRequest.getBody();
+
+				if (body != null && hasBody(mRequest.getMethod())) {
+					connection.setDoOutput(true);
+					connection.setFixedLengthStreamingMode(mRequest
+							.getBodyLength());
+					connection.setRequestProperty(CONTENT_TYPE_KEY,
+							mRequest.getContentType());
+
+					OutputStream out = connection.getOutputStream();
+					try {
+						out.write(body, 0, mRequest.getBodyLength());
+					} finally {
+						out.close();
+					}
+				}
+
+				int statusCode = connection.getResponseCode();
+
+				if (statusCode == -1) {
+					throw new IOException(
+							"Could not retrieve response code from HttpURLConnection.");
+				}
+
+				InputStream in = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST ? connection
+						.getErrorStream() : connection.getInputStream();
+
+				return new TransportResponse(statusCode,
+						connection.getHeaderFields(), readBody(in));
+			} finally {
+				// Closing the stream returns the socket to the pool
+				mConnection = null;
+			}
+		}
+
+		private static boolean hasBody(final String method) {
+			return TransportRequest.METHOD_POST.equals(method)
+					|| TransportRequest.METHOD_PUT.equals(method);
+		}
+
+		private static byte[] readBody(final InputStream in) throws IOException {
+			// Error responses may have no body
+			if (in == null) {
+				return null;
+			}
+
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(
+						BUFFER_SIZE);
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int count;
+
+				while ((count = in.read(buffer)) != -1) {
+					out.write(buffer, 0, count);
+				}
+
+				return out.toByteArray();
+			} finally {
+				in.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.transport;
+
+/**
+ * HTTP stack used by {@link com.networking.nemo.network.NetworkRequestManager}
+ * to run prepared requests. Scheduling, cookies, parsing and validation are
+ * done by the manager, so a transport only has to send the request and report
+ * the response.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public interface Transport {
+
+	/**
+	 * Runs request asynchronously. Callback may be invoked on any thread, but
+	 * not after the call has been canceled. Transport calls
+	 * {@link TransportRequest#releaseBody()} once it no longer needs the body.
+	 * Not modified response is reported with status 304 and the body cached
+	 * by the transport, if any.
+	 * 
+	 * @param request
+	 *            Request to be sent.
+	 * @param callback
+	 *            Callback receiving the response or failure.
+	 * @return Call which can be used to cancel the request.
+	 */
+	public TransportCall execute(TransportRequest request,
+			TransportCallback callback);
+}
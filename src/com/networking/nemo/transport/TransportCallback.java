@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.transport;
+
+/**
+ * Callback receiving the result of {@link TransportRequest}.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public interface TransportCallback {
+
+	/**
+	 * Called when server responded, whatever the status code.
+	 * 
+	 * @param response
+	 *            Response of the server.
+	 */
+	public void onResponse(TransportResponse response);
+
+	/**
+	 * Called when no response was received, e.g. connection failed or timed
+	 * out.
+	 * 
+	 * @param error
+	 *            Cause of the failure.
+	 */
+	public void onFailure(Exception error);
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.transport;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.networking.nemo.util.ByteArrayPool;
+
+/**
+ * Prepared request given to {@link Transport}. Headers already contain the
+ * cookies and the body is already serialized.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class TransportRequest {
+
+	public static final String METHOD_GET = "GET";
+	public static final String METHOD_POST = "POST";
+	public static final String METHOD_PUT = "PUT";
+	public static final String METHOD_DELETE = "DELETE";
+
+	public static final int DEFAULT_TIMEOUT_MILLIS = 2500;
+	public static final int DEFAULT_MAX_RETRIES = 1;
+	public static final float DEFAULT_BACKOFF_MULTIPLIER = 1f;
+
+	private String mMethod;
+	private String mUrl;
+	private Map<String, String> mHeaders;
+	private byte[] mBody;
+	private int mBodyLength;
+	private ByteArrayPool mBodyPool;
+	private String mContentType;
+	private int mTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+	private int mMaxRetries = DEFAULT_MAX_RETRIES;
+	private float mBackoffMultiplier = DEFAULT_BACKOFF_MULTIPLIER;
+	private boolean mShouldCache = true;
+
+	public TransportRequest(final String method, final String url,
+			final Map<String, String> headers, final byte[] body,
+			final String contentType) {
+		this(method, url, headers, body, body != null ? body.length : 0,
+				contentType);
+	}
+
+	/**
+	 * @param method
+	 *            One of the METHOD_ constants.
+	 * @param url
+	 *            Url of the request.
+	 * @param headers
+	 *            Headers of the request.
+	 * @param body
+	 *            Array holding the body, which may be longer than the body.
+	 * @param bodyLength
+	 *            Length of the body.
+	 * @param contentType
+	 *            Content type of the body.
+	 */
+	public TransportRequest(final String method, final String url,
+			final Map<String, String> headers, final byte[] body,
+			final int bodyLength, final String contentType) {
+		mMethod = method;
+		mUrl = url;
+		mHeaders = headers != null ? headers : Collections
+				.<String, String> emptyMap();
+		mBody = body;
+		mBodyLength = bodyLength;
+		mContentType = contentType;
+	}
+
+	/**
+	 * @return One of the METHOD_ constants.
+	 */
+	public String getMethod() {
+		return mMethod;
+	}
+
+	public String getUrl() {
+		return mUrl;
+	}
+
+	public Map<String, String> getHeaders() {
+		return mHeaders;
+	}
+
+	/**
+	 * @return Array holding the body of the request, or <code>null</code> if
+	 *         none. Only the first {@link #getBodyLength()} bytes belong to
+	 *         the body.
+	 */
+	public synchronized byte[] getBody() {
+		return mBody;
+	}
+
+	public int getBodyLength() {
+		return mBodyLength;
+	}
+
+	/**
+	 * Sets pool the body array is returned to by {@link #releaseBody()}.
+	 * 
+	 * @param bodyPool
+	 *            Pool the body array was taken from.
+	 */
+	public void setBodyPool(ByteArrayPool bodyPool) {
+		mBodyPool = bodyPool;
+	}
+
+	/**
+	 * Called by {@link Transport} when the body has been sent for the last
+	 * time. Returns pooled body array to its pool, after which
+	 * {@link #getBody()} returns <code>null</code>.
+	 */
+	public void releaseBody() {
+		if (mBodyPool == null) {
+			return;
+		}
+
+		byte[] body;
+
+		synchronized (this) {
+			body = mBody;
+			mBody = null;
+		}
+
+		mBodyPool.returnBuf(body);
+	}
+
+	public String getContentType() {
+		return mContentType;
+	}
+
+	/**
+	 * Sets timeout of the request. Transport retries request which times out,
+	 * growing the timeout after each retry.
+	 * 
+	 * @param timeoutMillis
+	 *            Timeout of the first attempt in milliseconds.
+	 * @param maxRetries
+	 *            Maximum count of retries after timeout, 0 for none.
+	 * @param backoffMultiplier
+	 *            Timeout grows by this multiple of itself on each retry.
+	 */
+	public void setTimeout(final int timeoutMillis, final int maxRetries,
+			final float backoffMultiplier) {
+		mTimeoutMillis = timeoutMillis;
+		mMaxRetries = maxRetries;
+		mBackoffMultiplier = backoffMultiplier;
+	}
+
+	/**
+	 * @return Timeout of the first attempt in milliseconds.
+	 */
+	public int getTimeoutMillis() {
+		return mTimeoutMillis;
+	}
+
+	/**
+	 * @return Maximum count of retries after timeout.
+	 */
+	public int getMaxRetries() {
+		return mMaxRetries;
+	}
+
+	public float getBackoffMultiplier() {
+		return mBackoffMultiplier;
+	}
+
+	/**
+	 * @return true, if transport may cache the response.
+	 */
+	public boolean getShouldCache() {
+		return mShouldCache;
+	}
+
+	public void setShouldCache(boolean shouldCache) {
+		mShouldCache = shouldCache;
+	}
+}
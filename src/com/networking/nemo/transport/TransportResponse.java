@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Response received by {@link Transport}. Header names are case insensitive
+ * and a header can have multiple values, e.g. Set-Cookie.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class TransportResponse {
+
+	private static final byte[] EMPTY_BODY = new byte[0];
+
+	private final int mStatusCode;
+	private final Map<String, List<String>> mHeaders = new TreeMap<String, List<String>>(
+			String.CASE_INSENSITIVE_ORDER);
+	private final byte[] mBody;
+
+	public TransportResponse(final int statusCode,
+			final Map<String, List<String>> headers, final byte[] body) {
+		mStatusCode = statusCode;
+		mBody = body != null ? body : EMPTY_BODY;
+
+		if (headers != null) {
+			for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+				// Status line has no name
+				if (header.getKey() != null && header.getValue() != null) {
+					mHeaders.put(header.getKey(), new ArrayList<String>(header
+							.getValue()));
+				}
+			}
+		}
+	}
+
+	public int getStatusCode() {
+		return mStatusCode;
+	}
+
+	public Map<String, List<String>> getHeaders() {
+		return Collections.unmodifiableMap(mHeaders);
+	}
+
+	/**
+	 * @param name
+	 *            Name of the header.
+	 * @return First value of the header or <code>null</code> if not found.
+	 */
+	public String getHeader(final String name) {
+		List<String> values = mHeaders.get(name);
+
+		return values != null && !values.isEmpty() ? values.get(0) : null;
+	}
+
+	/**
+	 * @param name
+	 *            Name of the header.
+	 * @return All values of the header.
+	 */
+	public List<String> getHeaderValues(final String name) {
+		List<String> values = mHeaders.get(name);
+
+		return values != null ? Collections.unmodifiableList(values)
+				: Collections.<String> emptyList();
+	}
+
+	public byte[] getBody() {
+		return mBody;
+	}
+}
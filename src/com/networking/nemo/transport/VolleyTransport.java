@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.transport;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.apache.http.HttpStatus;
+
+import android.content.Context;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Cache;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.HurlStack;
+
+/**
+ * {@link Transport} running requests in a Volley {@link RequestQueue}. Uses
+ * the Volley disk cache for requests which allow caching.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class VolleyTransport implements Transport {
+
+	private static final String CACHE_DIR = "volley";
+	private static final int THREAD_POOL_SIZE = 4;
+
+	private RequestQueue mRequestQueue;
+
+	/**
+	 * Creates transport with its own started {@link RequestQueue}. Callbacks
+	 * are invoked on the Volley network threads.
+	 * 
+	 * @param appContext
+	 *            Application context used for cache directory.
+	 */
+	public VolleyTransport(final Context appContext) {
+		Executor callbackExecutor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+
+		File cacheDir = new File(appContext.getCacheDir(), CACHE_DIR);
+		mRequestQueue = new RequestQueue(new DiskBasedCache(cacheDir),
+				new BasicNetwork(new HurlStack()), THREAD_POOL_SIZE,
+				new ExecutorDelivery(callbackExecutor));
+		mRequestQueue.start();
+	}
+
+	/**
+	 * Creates transport using started {@link RequestQueue}. Callbacks are
+	 * invoked on the thread the queue delivers responses on.
+	 * 
+	 * @param requestQueue
+	 *            Queue to be used.
+	 */
+	public VolleyTransport(final RequestQueue requestQueue) {
+		mRequestQueue = requestQueue;
+	}
+
+	@Override
+	public TransportCall execute(final TransportRequest request,
+			final TransportCallback callback) {
+		TransportVolleyRequest volleyRequest = new TransportVolleyRequest(
+				request, callback);
+		mRequestQueue.add(volleyRequest);
+
+		return volleyRequest;
+	}
+
+	private static int getVolleyMethod(final String method) {
+		if (TransportRequest.METHOD_POST.equals(method)) {
+			return Request.Method.POST;
+		} else if (TransportRequest.METHOD_PUT.equals(method)) {
+			return Request.Method.PUT;
+		} else if (TransportRequest.METHOD_DELETE.equals(method)) {
+			return Request.Method.DELETE;
+		}
+
+		return Request.Method.GET;
+	}
+
+	private static TransportResponse toTransportResponse(
+			final NetworkResponse response) {
+		Map<String, List<String>> headers = new HashMap<String, List<String>>();
+
+		if (response.headers != null) {
+			for (Map.Entry<String, String> header : response.headers
+					.entrySet()) {
+				headers.put(header.getKey(),
+						Collections.singletonList(header.getValue()));
+			}
+		}
+
+		// Not modified response with the body of Volley cache is complete,
+		// without a body it is left to the caller
+		int statusCode = response.statusCode;
+
+		if (response.notModified) {
+			statusCode = response.data != null ? HttpStatus.SC_OK
+					: HttpStatus.SC_NOT_MODIFIED;
+		}
+
+		return new TransportResponse(statusCode, headers, response.data);
+	}
+
+	/**
+	 * Volley request passing {@link TransportRequest} through as is.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	private static class TransportVolleyRequest extends
+			Request<TransportResponse> implements TransportCall {
+
+		private TransportRequest mRequest;
+		private TransportCallback mCallback;
+		private byte[] mBody;
+
+		public TransportVolleyRequest(final TransportRequest request,
+				final TransportCallback callback) {
+			super(getVolleyMethod(request.getMethod()), request.getUrl(), null);
+
+			mRequest = request;
+			mCallback = callback;
+
+			// Volley sends the whole array, copy once for all retries
+			byte[] body = request.getBody();
+			if (body != null) {
+				mBody = body.length == request.getBodyLength() ? body : Arrays
+						.copyOf(body, request.getBodyLength());
+			}
+			request.releaseBody();
+
+			setRetryPolicy(new DefaultRetryPolicy(request.getTimeoutMillis(),
+					request.getMaxRetries(), request.getBackoffMultiplier()));
+			setShouldCache(request.getShouldCache());
+		}
+
+		@Override
+		public Map<String, String> getHeaders() throws AuthFailureError {
+			return mRequest.getHeaders();
+		}
+
+		/**
+		 * Volley reads the body of a 304 from the cache entry, so a request
+		 * whose validators were set by the caller gets an empty entry instead
+		 * of none. Empty entry adds no validators of its own.
+		 */
+		@Override
+		public Cache.Entry getCacheEntry() {
+			Cache.Entry entry = super.getCacheEntry();
+
+			return entry != null ? entry : new Cache.Entry();
+		}
+
+		@Override
+		public String getBodyContentType() {
+			return mRequest.getContentType();
+		}
+
+		@Override
+		public byte[] getBody() throws AuthFailureError {
+			return mBody;
+		}
+
+		@Override
+		public String getPostBodyContentType() {
+			return getBodyContentType();
+		}
+
+		@Override
+		public byte[] getPostBody() throws AuthFailureError {
+			return getBody();
+		}
+
+		@Override
+		protected Response<TransportResponse> parseNetworkResponse(
+				NetworkResponse response) {
+			return Response.success(toTransportResponse(response),
+					HttpHeaderParser.parseCacheHeaders(response));
+		}
+
+		@Override
+		protected void deliverResponse(TransportResponse response) {
+			mCallback.onResponse(response);
+		}
+
+		@Override
+		public void deliverError(VolleyError error) {
+			// Error status codes are responses as well
+			if (error.networkResponse != null) {
+				mCallback.onResponse(toTransportResponse(error.networkResponse));
+			} else {
+				mCallback.onFailure(error);
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.util;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Volley's pool of byte arrays with counters of allocations, so the effect of
+ * pooling can be measured.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class ByteArrayPool extends com.android.volley.toolbox.ByteArrayPool {
+
+	// Arrays held by the pool, weakly as the pool drops arrays when trimmed
+	private final Map<byte[], Boolean> mPooledBuffers = new WeakHashMap<byte[], Boolean>();
+	private final int mSizeLimit;
+
+	// Statistics
+	private long mAllocationCount = 0;
+	private long mAllocatedBytes = 0;
+	private long mReuseCount = 0;
+
+	/**
+	 * @param sizeLimit
+	 *            Maximum count of bytes kept in the pool.
+	 */
+	public ByteArrayPool(final int sizeLimit) {
+		super(sizeLimit);
+		mSizeLimit = sizeLimit;
+	}
+
+	@Override
+	public synchronized byte[] getBuf(final int length) {
+		byte[] buffer = super.getBuf(length);
+
+		if (mPooledBuffers.remove(buffer) != null) {
+			mReuseCount++;
+		} else {
+			mAllocationCount++;
+			mAllocatedBytes += buffer.length;
+		}
+
+		return buffer;
+	}
+
+	@Override
+	public synchronized void returnBuf(final byte[] buffer) {
+		if (buffer != null && buffer.length <= mSizeLimit) {
+			mPooledBuffers.put(buffer, Boolean.TRUE);
+		}
+
+		super.returnBuf(buffer);
+	}
+
+	/**
+	 * @return Count of arrays allocated because the pool had none to reuse.
+	 */
+	public synchronized long getAllocationCount() {
+		return mAllocationCount;
+	}
+
+	/**
+	 * @return Total length of the allocated arrays.
+	 */
+	public synchronized long getAllocatedBytes() {
+		return mAllocatedBytes;
+	}
+
+	/**
+	 * @return Count of arrays reused from the pool.
+	 */
+	public synchronized long getReuseCount() {
+		return mReuseCount;
+	}
+}
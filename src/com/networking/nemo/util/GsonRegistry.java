@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.networking.nemo.deserializer.GeneratedTypeAdapterFactory;
+import com.networking.nemo.deserializer.JsonModel;
+import com.networking.nemo.deserializer.JsonRequired;
+import com.networking.nemo.deserializer.JsonRequiredTypeAdapterFactory;
+
+/**
+ * Process wide holder of the {@link Gson} used for request bodies and
+ * responses, and of the {@link TypeAdapter} of each class. Creating Gson and
+ * its reflective adapters is expensive, so they are created once and shared
+ * between threads. Adapters generated for {@link JsonModel} classes are used
+ * when available.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public final class GsonRegistry {
+
+	// Generated adapters are preferred over reflection
+	private static final Gson GSON = new GsonBuilder()
+			.registerTypeAdapterFactory(new GeneratedTypeAdapterFactory(false))
+			.create();
+	// Factory registered last is asked first
+	private static final Gson JSON_REQUIRED_GSON = new GsonBuilder()
+			.registerTypeAdapterFactory(new JsonRequiredTypeAdapterFactory())
+			.registerTypeAdapterFactory(new GeneratedTypeAdapterFactory(true))
+			.create();
+
+	private static final ConcurrentHashMap<Class<?>, TypeAdapter<?>> ADAPTERS = new ConcurrentHashMap<Class<?>, TypeAdapter<?>>();
+	private static final ConcurrentHashMap<Class<?>, TypeAdapter<?>> JSON_REQUIRED_ADAPTERS = new ConcurrentHashMap<Class<?>, TypeAdapter<?>>();
+
+	public static Gson getGson() {
+		return GSON;
+	}
+
+	/**
+	 * @return Gson checking {@link JsonRequired} fields of every object it
+	 *         reads.
+	 */
+	public static Gson getJsonRequiredGson() {
+		return JSON_REQUIRED_GSON;
+	}
+
+	/**
+	 * @param classOfT
+	 *            Class to be read or written.
+	 * @return Cached adapter of the class.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> TypeAdapter<T> getAdapter(final Class<T> classOfT) {
+		TypeAdapter<T> adapter = (TypeAdapter<T>) ADAPTERS.get(classOfT);
+
+		if (adapter == null) {
+			adapter = GSON.getAdapter(classOfT);
+			ADAPTERS.putIfAbsent(classOfT, adapter);
+		}
+
+		return adapter;
+	}
+
+	/**
+	 * @param classOfT
+	 *            Class to be read or written.
+	 * @return Cached adapter of the class which also checks the
+	 *         {@link JsonRequired} fields of the class, its superclasses and
+	 *         the objects nested in it.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> TypeAdapter<T> getJsonRequiredAdapter(
+			final Class<T> classOfT) {
+		TypeAdapter<T> adapter = (TypeAdapter<T>) JSON_REQUIRED_ADAPTERS
+				.get(classOfT);
+
+		if (adapter == null) {
+			adapter = JSON_REQUIRED_GSON.getAdapter(classOfT);
+			JSON_REQUIRED_ADAPTERS.putIfAbsent(classOfT, adapter);
+		}
+
+		return adapter;
+	}
+
+	private GsonRegistry() {
+	}
+}
@@ -16,26 +16,84 @@
 
 package com.networking.nemo.util;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import android.content.Context;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.networking.nemo.enums.NetworkState;
+import com.networking.nemo.receiver.NetworkStateReceiver;
 
 /**
- * Simple helper class to check whether network is connected or not.
+ * Keeps track of whether network is connected. State is read once and then
+ * updated from connectivity broadcasts, so checking it is a field read. A
+ * change is applied only after it has lasted
+ * {@link #setDebounceTime(long) the debounce time}, so a flapping network
+ * does not flip the state back and forth. Applied changes are posted to
+ * {@link NemoBus}.
  * 
  * @author Niko Rehnbck
  * 
  */
 public class NetworkStateChecker {
 
+	private static final long DEFAULT_DEBOUNCE_TIME_MS = 1000;
+
+	/**
+	 * Listener of connectivity changes, called on the main thread.
+	 * 
+	 * @author Niko Rehnbck
+	 * 
+	 */
+	public interface OnNetworkStateListener {
+
+		/**
+		 * Called when connectivity has changed but the change has not yet
+		 * lasted the debounce time.
+		 */
+		void onNetworkStateUnsettled();
+
+		/**
+		 * Called when the state has settled, changed or not.
+		 * 
+		 * @param state
+		 *            Current state.
+		 */
+		void onNetworkStateSettled(NetworkState state);
+	}
+
 	private static NetworkStateChecker sNetworkStateChecker;
 	private Context mAppContext;
 
+	private volatile NetworkState mState;
+
+	// Accessed only on the main thread
+	private NetworkState mPendingState = null;
+	private long mDebounceTime = DEFAULT_DEBOUNCE_TIME_MS;
+
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private final List<OnNetworkStateListener> mListeners = new CopyOnWriteArrayList<OnNetworkStateListener>();
+
 	private NetworkStateChecker(Context appContext) {
-		mAppContext = appContext;
+		mAppContext = appContext.getApplicationContext();
+		mState = queryState();
+
+		if (mState == null) {
+			mState = NetworkState.DISCONNECTED;
+		}
+
+		// Works also when the app does not declare the receiver
+		mAppContext.registerReceiver(new NetworkStateReceiver(),
+				new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
 	}
 
-	public static NetworkStateChecker getInstance(Context appContext) {
+	public static synchronized NetworkStateChecker getInstance(
+			Context appContext) {
 		if (sNetworkStateChecker == null) {
 			sNetworkStateChecker = new NetworkStateChecker(appContext);
 		}
@@ -50,21 +108,107 @@ public class NetworkStateChecker {
 	}
 
 	public boolean isNetworkConnected() {
+		return mState == NetworkState.CONNECTED;
+	}
+
+	public NetworkState getState() {
+		return mState;
+	}
+
+	public void addListener(final OnNetworkStateListener listener) {
+		mListeners.add(listener);
+	}
+
+	public void removeListener(final OnNetworkStateListener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Sets how long a connectivity change must last before it is applied.
+	 * Must be called on the main thread.
+	 * 
+	 * @param debounceTime
+	 *            Time in milliseconds, 1000 by default.
+	 */
+	public void setDebounceTime(final long debounceTime) {
+		mDebounceTime = debounceTime;
+	}
+
+	/**
+	 * Called by {@link NetworkStateReceiver} on the main thread when
+	 * connectivity changes.
+	 */
+	public void onConnectivityChanged() {
+		NetworkState state = queryState();
+
+		// Ignore connecting and repeated broadcasts
+		if (state == null || state == mPendingState) {
+			return;
+		}
+
+		mMainHandler.removeCallbacks(mStateSettler);
+
+		if (state == mState) {
+			// Flapped back before the change was applied
+			if (mPendingState != null) {
+				mPendingState = null;
+				notifySettled(state);
+			}
+
+			return;
+		}
+
+		if (mPendingState == null) {
+			for (OnNetworkStateListener listener : mListeners) {
+				listener.onNetworkStateUnsettled();
+			}
+		}
+
+		mPendingState = state;
+		mMainHandler.postDelayed(mStateSettler, mDebounceTime);
+	}
+
+	private final Runnable mStateSettler = new Runnable() {
+		@Override
+		public void run() {
+			NetworkState state = mPendingState;
+
+			mPendingState = null;
+			mState = state;
+
+			// Log
+			NemoLog.debug(NetworkStateChecker.class, "network state: "
+					+ state);
+
+			NemoBus.getInstance().post(state);
+			notifySettled(state);
+		}
+	};
+
+	private void notifySettled(final NetworkState state) {
+		for (OnNetworkStateListener listener : mListeners) {
+			listener.onNetworkStateSettled(state);
+		}
+	}
+
+	/**
+	 * @return State of the active network, or <code>null</code> if it is
+	 *         connecting.
+	 */
+	private NetworkState queryState() {
 		ConnectivityManager connectivity = (ConnectivityManager) mAppContext
 				.getSystemService(Context.CONNECTIVITY_SERVICE);
 
-		if (connectivity != null) {
-			NetworkInfo[] info = connectivity.getAllNetworkInfo();
+		if (connectivity == null) {
+			return NetworkState.DISCONNECTED;
+		}
 
-			if (info != null) {
-				for (int i = 0; i < info.length; i++) {
-					if (info[i].getState() == NetworkInfo.State.CONNECTED) {
-						return true;
-					}
-				}
-			}
+		NetworkInfo networkInfo = connectivity.getActiveNetworkInfo();
+
+		if (networkInfo == null || !networkInfo.isConnectedOrConnecting()) {
+			return NetworkState.DISCONNECTED;
 		}
 
-		return false;
+		return networkInfo.isConnected() ? NetworkState.CONNECTED : null;
 	}
 }
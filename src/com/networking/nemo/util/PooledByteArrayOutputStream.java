@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.util;
+
+import java.io.IOException;
+
+import com.android.volley.toolbox.PoolingByteArrayOutputStream;
+
+/**
+ * Volley's output stream writing into arrays of {@link ByteArrayPool}, whose
+ * array can be handed over to the caller without copying the written bytes.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class PooledByteArrayOutputStream extends PoolingByteArrayOutputStream {
+
+	private static final int DEFAULT_SIZE = 4096;
+
+	public PooledByteArrayOutputStream(final ByteArrayPool pool) {
+		this(pool, DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param pool
+	 *            Pool of the arrays.
+	 * @param size
+	 *            Expected count of bytes to be written.
+	 */
+	public PooledByteArrayOutputStream(final ByteArrayPool pool, final int size) {
+		super(pool, size);
+	}
+
+	/**
+	 * Returns array to the pool unless it has been taken over with
+	 * {@link #detachBuffer()}.
+	 */
+	@Override
+	public void close() {
+		try {
+			super.close();
+		} catch (IOException e) {
+			// Nothing to close for an array
+		}
+	}
+
+	/**
+	 * Hands array over to the caller, who must return it to the pool. Closing
+	 * the stream after this does not return the array.
+	 * 
+	 * @return Array holding the written bytes, which may be longer than
+	 *         {@link #size()}.
+	 */
+	public synchronized byte[] detachBuffer() {
+		byte[] buffer = buf;
+		buf = null;
+
+		return buffer;
+	}
+}
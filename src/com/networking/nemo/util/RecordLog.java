@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Append-only log file of records. Every change is appended as a record and
+ * the file is rewritten with only the live records when most of its records
+ * have been replaced. Subclasses define the records and keep the live ones.
+ * 
+ * All file access runs on a single background thread in the order the
+ * changes were made, so callers never wait for disk. The log is read through
+ * a memory mapped buffer when loaded. Record is appended only if it could be
+ * written whole, so a failed write never leaves a partial record behind.
+ * 
+ * @author Niko Rehnbck
+ * 
+ * @param <T>
+ *            Class of the records.
+ */
+public abstract class RecordLog<T> {
+
+	protected static final byte RECORD_ADD = 1;
+	protected static final byte RECORD_REMOVE = 2;
+
+	// Strings are written with a 16 bit length
+	private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+	private static final String CHARSET = "UTF-8";
+	private static final String COMPACT_SUFFIX = ".compact";
+
+	// Compact when there are this many records and most of them are garbage
+	private static final int MIN_RECORD_COUNT_TO_COMPACT = 64;
+
+	private final File mFile;
+	private final int mMagic;
+	private final ExecutorService mExecutor;
+
+	// Accessed only on the executor thread
+	private final ByteArrayOutputStream mRecordBuffer = new ByteArrayOutputStream();
+	private OutputStream mOut;
+	private int mRecordCount = 0;
+
+	/**
+	 * @param file
+	 *            Log file, created if it does not exist.
+	 * @param magic
+	 *            Number the file starts with, unique to the format.
+	 * @param threadName
+	 *            Name of the background thread.
+	 */
+	protected RecordLog(final File file, final int magic,
+			final String threadName) {
+		mFile = file;
+		mMagic = magic;
+		mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * Deletes the log file and stops the background thread. Log cannot be used
+	 * after this.
+	 */
+	public void delete() {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				closeOutput();
+
+				if (mFile.exists() && !mFile.delete()) {
+					NemoLog.warn(RecordLog.this.getClass(), "cannot delete "
+							+ mFile);
+				}
+			}
+		});
+		mExecutor.shutdown();
+	}
+
+	/**
+	 * Runs task on the background thread, unless the log has been deleted.
+	 */
+	protected void execute(final Runnable task) {
+		try {
+			mExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			// Deleted meanwhile
+		}
+	}
+
+	/**
+	 * Reads one record of the log file.
+	 * 
+	 * @param buffer
+	 *            Buffer positioned after the type of the record.
+	 * @param type
+	 *            Type of the record.
+	 * @return false, if the type is unknown.
+	 * @throws BufferUnderflowException
+	 *             if the record was not written completely.
+	 */
+	protected abstract boolean readRecord(ByteBuffer buffer, byte type)
+			throws IOException;
+
+	/**
+	 * Writes one record, starting with its type.
+	 */
+	protected abstract void writeRecord(DataOutputStream out, T record,
+			byte type) throws IOException;
+
+	/**
+	 * @return Records written when the log is compacted.
+	 */
+	protected abstract Collection<T> getLiveRecords();
+
+	/**
+	 * Replays records of the log file with {@link #readRecord(ByteBuffer,
+	 * byte)}. Called on the background thread.
+	 * 
+	 * @return true, if the whole file was valid.
+	 */
+	protected boolean read() {
+		if (!mFile.exists() || mFile.length() == 0) {
+			return false;
+		}
+
+		FileInputStream in = null;
+
+		try {
+			in = new FileInputStream(mFile);
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+
+			if (buffer.getInt() != mMagic) {
+				NemoLog.warn(getClass(), "unknown format, " + mFile);
+				return false;
+			}
+
+			while (buffer.hasRemaining()) {
+				if (!readRecord(buffer, buffer.get())) {
+					return false;
+				}
+
+				mRecordCount++;
+			}
+
+			return true;
+		} catch (BufferUnderflowException e) {
+			// Last record was not written completely
+			NemoLog.warn(getClass(), "truncated, " + mFile);
+			return false;
+		} catch (IOException e) {
+			NemoLog.error(getClass(), "cannot read " + mFile + ": " + e);
+			return false;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Appends record to the log file. Called on the background thread.
+	 * 
+	 * @return true, if the record was written.
+	 */
+	protected boolean write(final T record, final byte type) {
+		try {
+			// Record too large to be written must not be appended in part
+			mRecordBuffer.reset();
+			DataOutputStream recordOut = new DataOutputStream(mRecordBuffer);
+			writeRecord(recordOut, record, type);
+			recordOut.flush();
+		} catch (IOException e) {
+			NemoLog.error(getClass(), "cannot write record to " + mFile + ": "
+					+ e);
+			return false;
+		}
+
+		try {
+			if (mOut == null) {
+				boolean exists = mFile.exists() && mFile.length() > 0;
+				mOut = new BufferedOutputStream(new FileOutputStream(mFile,
+						true));
+
+				if (!exists) {
+					new DataOutputStream(mOut).writeInt(mMagic);
+				}
+			}
+
+			mRecordBuffer.writeTo(mOut);
+			mOut.flush();
+			mRecordCount++;
+
+			return true;
+		} catch (IOException e) {
+			NemoLog.error(getClass(), "cannot write " + mFile + ": " + e);
+			closeOutput();
+			return false;
+		}
+	}
+
+	/**
+	 * @param liveCount
+	 *            Count of live records.
+	 * @return true, if most of the records of the file are garbage.
+	 */
+	protected boolean shouldCompact(final int liveCount) {
+		return mRecordCount >= MIN_RECORD_COUNT_TO_COMPACT
+				&& mRecordCount > 2 * liveCount;
+	}
+
+	/**
+	 * Writes live records to a new file which then replaces the log. Called
+	 * on the background thread.
+	 */
+	protected void compact() {
+		closeOutput();
+
+		Collection<T> live = getLiveRecords();
+		File compacted = new File(mFile.getPath() + COMPACT_SUFFIX);
+		DataOutputStream out = null;
+
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(compacted)));
+			out.writeInt(mMagic);
+
+			for (T record : live) {
+				writeRecord(out, record, RECORD_ADD);
+			}
+
+			out.close();
+			out = null;
+
+			if (!compacted.renameTo(mFile)) {
+				throw new IOException("cannot rename " + compacted);
+			}
+
+			mRecordCount = live.size();
+		} catch (IOException e) {
+			NemoLog.error(getClass(), "cannot compact " + mFile + ": " + e);
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private void closeOutput() {
+		closeQuietly(mOut);
+		mOut = null;
+	}
+
+	/**
+	 * Writes string as UTF-8 with a 16 bit length.
+	 * 
+	 * @throws UTFDataFormatException
+	 *             if the string is longer than 65535 bytes.
+	 */
+	protected static void writeString(final DataOutputStream out,
+			final String string) throws IOException {
+		byte[] bytes = string.getBytes(CHARSET);
+
+		if (bytes.length > MAX_STRING_LENGTH) {
+			throw new UTFDataFormatException("string too long: "
+					+ bytes.length + " bytes");
+		}
+
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	protected static String readString(final ByteBuffer buffer)
+			throws UnsupportedEncodingException {
+		byte[] bytes = new byte[buffer.getShort() & MAX_STRING_LENGTH];
+		buffer.get(bytes);
+
+		return new String(bytes, CHARSET);
+	}
+
+	private static void closeQuietly(final Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// Ignored
+			}
+		}
+	}
+}
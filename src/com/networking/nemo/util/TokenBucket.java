@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.util;
+
+/**
+ * Token bucket limiting an extra action to a fraction of the requests. Every
+ * request deposits a fraction of a token and every action withdraws a whole
+ * token, so actions stop once the saved tokens have been spent. Bucket starts
+ * full.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public class TokenBucket {
+
+	private final double mRatio;
+	private final int mMaxTokens;
+
+	// Guarded by this
+	private double mTokens;
+	private long mWithdrawnCount = 0;
+	private long mRejectedCount = 0;
+
+	/**
+	 * @param ratio
+	 *            Tokens deposited for each request, which is the long term
+	 *            maximum ratio of actions to requests.
+	 * @param maxTokens
+	 *            Maximum count of saved tokens, allowing bursts of actions when
+	 *            there is little traffic.
+	 */
+	public TokenBucket(final double ratio, final int maxTokens) {
+		if (ratio < 0 || ratio > 1) {
+			throw new IllegalArgumentException(
+					"Parameter ratio must be in range [0, 1].");
+		}
+
+		if (maxTokens < 1) {
+			throw new IllegalArgumentException(
+					"Parameter maxTokens must be at least 1.");
+		}
+
+		mRatio = ratio;
+		mMaxTokens = maxTokens;
+		mTokens = maxTokens;
+	}
+
+	/**
+	 * Deposits the fraction of a token of one request.
+	 */
+	public synchronized void deposit() {
+		mTokens = Math.min(mMaxTokens, mTokens + mRatio);
+	}
+
+	/**
+	 * Withdraws token for an action.
+	 * 
+	 * @return true, if there was a whole token.
+	 */
+	public synchronized boolean tryWithdraw() {
+		if (mTokens < 1) {
+			mRejectedCount++;
+			return false;
+		}
+
+		mTokens--;
+		mWithdrawnCount++;
+
+		return true;
+	}
+
+	public synchronized double getTokens() {
+		return mTokens;
+	}
+
+	/**
+	 * @return Count of tokens withdrawn.
+	 */
+	public synchronized long getWithdrawnCount() {
+		return mWithdrawnCount;
+	}
+
+	/**
+	 * @return Count of withdrawals refused because the bucket was empty.
+	 */
+	public synchronized long getRejectedCount() {
+		return mRejectedCount;
+	}
+}
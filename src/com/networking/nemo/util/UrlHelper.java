@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014 Niko Rehnbck
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.networking.nemo.util;
+
+import java.net.URI;
+import java.util.Locale;
+
+/**
+ * Helper class for reading parts of request urls.
+ * 
+ * @author Niko Rehnbck
+ * 
+ */
+public final class UrlHelper {
+
+	/**
+	 * @param url
+	 *            Url of the request.
+	 * @return Lower case host of the url or empty string if url cannot be
+	 *         parsed.
+	 */
+	public static String getHost(final String url) {
+		try {
+			String host = new URI(url).getHost();
+
+			if (host != null) {
+				return host.toLowerCase(Locale.US);
+			}
+		} catch (Exception e) {
+			NemoLog.warn(UrlHelper.class, "invalid url: " + url);
+		}
+
+		return "";
+	}
+
+	/**
+	 * @param url
+	 *            Url of the request.
+	 * @return Path of the url or "/" if url has no path or cannot be parsed.
+	 */
+	public static String getPath(final String url) {
+		try {
+			String path = new URI(url).getRawPath();
+
+			if (path != null && path.length() > 0) {
+				return path;
+			}
+		} catch (Exception e) {
+			NemoLog.warn(UrlHelper.class, "invalid url: " + url);
+		}
+
+		return "/";
+	}
+
+	private UrlHelper() {
+	}
+}